@@ -62,51 +62,100 @@ public interface BufWriter {
   /** Implementation of {@link BufWriter} for a {@link ByteBuffer} */
   @SuppressWarnings("unchecked")
   class Simple<SELF extends Simple<SELF>> implements BufWriter {
+    /** Where buffers are allocated from and released to on growth */
+    public final BufferAllocator allocator;
     /** Whether or not the created byte buffers are "direct" */
     public final boolean directBuffer;
-    /** The amount of bytes to increase the size by on buffer growth */
+    /** The amount of bytes to increase the size by on buffer growth, or 0 to at least double it instead */
     public final int bufferStep;
     /** The underlying buffer. Do not use this directly. */
     public ByteBuffer buf;
     /** Position when {@link #writeLengthIntBegin()} was called or -1 otherwise */
     protected int bufLastLengthBegin = -1;
+    /** {@link #writePosition()} when {@link #writeLengthIntBegin()} was called */
+    protected int lastLengthBeginWritePosition;
     /** Whether or not single quotes are being escaped via {@link #writeStringEscapeSingleQuoteBegin()} */
     protected boolean escapeSingleQuote;
     /** The number of times {@link #writeStringEscapeDoubleQuoteBegin()} is called without end */
     protected int escapeDoubleQuoteDepth;
 
-    /** Create writer. See {@link #directBuffer} and {@link #bufferStep} */
-    public Simple(boolean directBuffer, int bufferStep) {
+    /**
+     * Create writer using {@link BufferAllocator#getDefault()}. See {@link #directBuffer} and {@link #bufferStep}
+     * @deprecated Use {@link #Simple(BufferAllocator, boolean, int)} which grows by doubling
+     */
+    @Deprecated
+    public Simple(boolean directBuffer, int bufferStep) { this(directBuffer, bufferStep, bufferStep); }
+
+    /**
+     * Create writer with an initial buffer of at least the given size using {@link BufferAllocator#getDefault()}. See
+     * {@link #directBuffer} and {@link #bufferStep}
+     * @deprecated Use {@link #Simple(BufferAllocator, boolean, int)} which grows by doubling
+     */
+    @Deprecated
+    public Simple(boolean directBuffer, int bufferStep, int initialSize) {
+      this(BufferAllocator.getDefault(), directBuffer, bufferStep, initialSize);
+    }
+
+    /** Create writer with an initial buffer of at least the given size that grows by doubling */
+    public Simple(BufferAllocator allocator, boolean directBuffer, int initialSize) {
+      this(allocator, directBuffer, 0, initialSize);
+    }
+
+    /** Create writer with an initial buffer of at least the given size. See {@link #bufferStep}. */
+    protected Simple(BufferAllocator allocator, boolean directBuffer, int bufferStep, int initialSize) {
+      if (bufferStep < 0) throw new IllegalArgumentException("Buffer step must not be negative");
+      this.allocator = allocator;
       this.directBuffer = directBuffer;
       this.bufferStep = bufferStep;
-      buf = directBuffer ? ByteBuffer.allocateDirect(bufferStep) : ByteBuffer.allocate(bufferStep);
+      buf = allocator.allocate(initialSize, directBuffer);
     }
 
     /**
      * Increase buffer size to have the needed amount available. This is done via new buffer creation, so old contents
-     * are copied and position is retained. Result is convenience for {@link #buf}.
+     * are copied and position is retained. The size at least doubles, or grows by {@link #bufferStep} if set, and the
+     * old buffer is released to the allocator. Result is convenience for {@link #buf}.
      */
     public ByteBuffer writeEnsureCapacity(int needed) {
       if (buf.capacity() - buf.position() < needed) {
+        ByteBuffer oldBuf = buf;
         // Round up to the next step and then add it
-        int newAmount = (((buf.capacity() + needed) / bufferStep) + 1) * bufferStep;
-        buf.flip();
-        buf = (directBuffer ? ByteBuffer.allocateDirect(newAmount) : ByteBuffer.allocate(newAmount)).put(buf);
+        int newAmount = bufferStep > 0 ? (((oldBuf.capacity() + needed) / bufferStep) + 1) * bufferStep :
+            Math.max(oldBuf.position() + needed, oldBuf.capacity() * 2);
+        oldBuf.flip();
+        buf = allocator.allocate(newAmount, directBuffer).put(oldBuf);
+        allocator.release(oldBuf);
       }
       return buf;
     }
 
+    /**
+     * If the buffer has grown to at least double the given size, replace it with a cleared one of that size and release
+     * the large one to the allocator. This must only be called when nothing in the buffer is needed anymore.
+     */
+    public void shrinkBuffer(int size) {
+      if (buf.capacity() / 2 < size) return;
+      allocator.release(buf);
+      buf = allocator.allocate(size, directBuffer);
+    }
+
+    /**
+     * The number of bytes written so far. This is the position of {@link #buf} unless a subclass keeps some written
+     * bytes outside of it.
+     */
+    public int writePosition() { return buf.position(); }
+
     @Override
     public SELF writeLengthIntBegin() {
       if (bufLastLengthBegin != -1) throw new IllegalStateException("Length already started");
       bufLastLengthBegin = buf.position();
+      lastLengthBeginWritePosition = writePosition();
       return writeInt(0);
     }
 
     @Override
     public SELF writeLengthIntEnd() {
       if (bufLastLengthBegin == -1) throw new IllegalStateException("Length not started");
-      buf.putInt(bufLastLengthBegin, buf.position() - bufLastLengthBegin);
+      buf.putInt(bufLastLengthBegin, writePosition() - lastLengthBeginWritePosition);
       bufLastLengthBegin = -1;
       return (SELF) this;
     }
@@ -0,0 +1,128 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte buffers in power-of-two size classes. Small released buffers are kept in a bounded cache on the
+ * releasing thread first. Others, and those that don't fit in the thread's cache, go to a shared pool bounded by total
+ * bytes. Buffers larger than {@link #maxPooledSize} are allocated at the exact size asked for and never pooled. This is
+ * thread safe.
+ */
+public class BufferAllocator {
+  protected static @Nullable BufferAllocator defaultAllocator;
+
+  /**
+   * The shared allocator with 1KB to 4MB size classes, up to 8 buffers of 64KB or less cached per thread and size
+   * class, and up to 32MB in the shared pool, created on first use
+   */
+  public static synchronized BufferAllocator getDefault() {
+    if (defaultAllocator == null)
+      defaultAllocator = new BufferAllocator(1024, 4 * 1024 * 1024, 64 * 1024, 8, 32 * 1024 * 1024);
+    return defaultAllocator;
+  }
+
+  /** The smallest size class, a power of two */
+  public final int minSize;
+  /** The largest size class, a power of two. Larger buffers are not pooled. */
+  public final int maxPooledSize;
+  /** The largest size class cached per thread. Larger ones only go to the shared pool. */
+  public final int maxThreadCachedSize;
+  /** The most buffers of each size class and kind to cache on a single thread */
+  public final int threadCacheSize;
+  /** The most bytes to keep in the shared pool across all size classes and kinds */
+  public final long maxSharedPoolBytes;
+
+  protected final int sizeClassCount;
+  // Indexed by size class * 2 + 1 if direct or + 0 if not
+  protected final Queue<ByteBuffer>[] sharedPool;
+  protected final AtomicLong sharedPoolBytes = new AtomicLong();
+  protected final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCache;
+  protected final AtomicLong pooledDirectBytes = new AtomicLong();
+  protected final AtomicLong allocatedDirectBytes = new AtomicLong();
+
+  /** Create allocator. See the fields for what each parameter means. */
+  @SuppressWarnings({"unchecked", "initialization"})
+  public BufferAllocator(int minSize, int maxPooledSize, int maxThreadCachedSize, int threadCacheSize,
+      long maxSharedPoolBytes) {
+    if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxPooledSize) != 1 || minSize > maxPooledSize)
+      throw new IllegalArgumentException("Sizes must be powers of two with min <= max");
+    this.minSize = minSize;
+    this.maxPooledSize = maxPooledSize;
+    this.maxThreadCachedSize = maxThreadCachedSize;
+    this.threadCacheSize = threadCacheSize;
+    this.maxSharedPoolBytes = maxSharedPoolBytes;
+    sizeClassCount = Integer.numberOfTrailingZeros(maxPooledSize) - Integer.numberOfTrailingZeros(minSize) + 1;
+    sharedPool = new Queue[sizeClassCount * 2];
+    for (int i = 0; i < sharedPool.length; i++) sharedPool[i] = new ConcurrentLinkedQueue<>();
+    threadCache = ThreadLocal.withInitial(() -> {
+      ArrayDeque<ByteBuffer>[] ret = new ArrayDeque[sizeClassCount * 2];
+      for (int i = 0; i < ret.length; i++) ret[i] = new ArrayDeque<>(threadCacheSize);
+      return ret;
+    });
+  }
+
+  /**
+   * Get a cleared buffer with at least the given capacity. The capacity is rounded up to the next size class unless it
+   * is larger than {@link #maxPooledSize}.
+   */
+  public ByteBuffer allocate(int minCapacity, boolean direct) {
+    if (minCapacity > maxPooledSize) return newBuffer(minCapacity, direct);
+    int capacity = Math.max(minSize, Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1);
+    int index = poolIndex(capacity, direct);
+    ByteBuffer ret = capacity <= maxThreadCachedSize ? threadCache.get()[index].poll() : null;
+    if (ret == null) {
+      ret = sharedPool[index].poll();
+      if (ret != null) sharedPoolBytes.addAndGet(-capacity);
+    }
+    if (ret == null) return newBuffer(capacity, direct);
+    if (direct) pooledDirectBytes.addAndGet(-capacity);
+    ret.clear();
+    return ret;
+  }
+
+  /**
+   * Give back a buffer that is no longer used anywhere, including any slices or duplicates of it. Buffers that aren't
+   * of a size class or don't fit in the pool are left to be garbage collected.
+   */
+  public void release(ByteBuffer buf) {
+    int capacity = buf.capacity();
+    if (capacity < minSize || capacity > maxPooledSize || Integer.bitCount(capacity) != 1 || buf.isReadOnly()) return;
+    int index = poolIndex(capacity, buf.isDirect());
+    ArrayDeque<ByteBuffer> cache = capacity <= maxThreadCachedSize ? threadCache.get()[index] : null;
+    if (cache != null && cache.size() < threadCacheSize) {
+      cache.push(buf);
+    } else if (sharedPoolBytes.addAndGet(capacity) <= maxSharedPoolBytes) {
+      sharedPool[index].add(buf);
+    } else {
+      sharedPoolBytes.addAndGet(-capacity);
+      return;
+    }
+    if (buf.isDirect()) pooledDirectBytes.addAndGet(capacity);
+  }
+
+  /**
+   * Bytes of direct memory held by this pool for reuse. This includes buffers cached on threads that may have since
+   * ended.
+   */
+  public long getPooledDirectBytes() { return pooledDirectBytes.get(); }
+
+  /** Total bytes of direct memory ever allocated by this allocator, whether or not it has been released */
+  public long getAllocatedDirectBytes() { return allocatedDirectBytes.get(); }
+
+  protected ByteBuffer newBuffer(int capacity, boolean direct) {
+    if (!direct) return ByteBuffer.allocate(capacity);
+    allocatedDirectBytes.addAndGet(capacity);
+    return ByteBuffer.allocateDirect(capacity);
+  }
+
+  protected int poolIndex(int capacity, boolean direct) {
+    int sizeClass = Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(minSize);
+    return sizeClass * 2 + (direct ? 1 : 0);
+  }
+}
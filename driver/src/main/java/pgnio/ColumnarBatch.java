@@ -0,0 +1,237 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rows of a result decoded into a vector per column, given by {@link QueryResultConnection#collectColumnar()} and
+ * {@link QueryResultConnection#forEachColumnarAsync(int, java.util.function.Function)}. Columns are typed from the
+ * {@link QueryMessage.RowMeta}: int2 and int4 are {@link IntColumn}s, int8 and oid are {@link LongColumn}s, float4 and
+ * float8 are {@link DoubleColumn}s, bool is a {@link BooleanColumn}, and everything else, or every column when there
+ * is no metadata, is a {@link BytesColumn} of the raw values. The arrays may be longer than {@link #rowCount}, only
+ * the values up to it are set. Values of null entries are zero or empty.
+ */
+public class ColumnarBatch {
+  /** The row metadata for the query if any */
+  public final QueryMessage.@Nullable RowMeta meta;
+  /** The number of rows in this batch */
+  public final int rowCount;
+  /** The columns in order */
+  public final Column[] columns;
+
+  protected ColumnarBatch(QueryMessage.@Nullable RowMeta meta, int rowCount, Column[] columns) {
+    this.meta = meta;
+    this.rowCount = rowCount;
+    this.columns = columns;
+  }
+
+  /** The column with the given name, case insensitive. This requires row metadata. */
+  public Column column(String colName) {
+    if (meta == null) throw new DriverException.MissingRowMeta();
+    QueryMessage.RowMeta.Column col = meta.columnsByName.get(colName.toLowerCase());
+    if (col == null) throw new DriverException.ColumnNotPresent("No column for name " + colName);
+    return columns[col.index];
+  }
+
+  /** Create an empty column for the given metadata that can hold the given number of rows before growing */
+  protected static Column newColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+    switch (meta == null ? DataType.UNSPECIFIED : meta.dataTypeOid) {
+      case DataType.INT2: case DataType.INT4: return new IntColumn(index, meta, capacity);
+      case DataType.INT8: case DataType.OID: return new LongColumn(index, meta, capacity);
+      case DataType.FLOAT4: case DataType.FLOAT8: return new DoubleColumn(index, meta, capacity);
+      case DataType.BOOL: return new BooleanColumn(index, meta, capacity);
+      default: return new BytesColumn(index, meta, capacity);
+    }
+  }
+
+  /** Base for all column vectors */
+  public abstract static class Column {
+    /** The index of the column in the row */
+    public final int index;
+    /** The column metadata if any */
+    public final QueryMessage.RowMeta.@Nullable Column meta;
+    protected long[] nulls;
+
+    protected Column(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      this.index = index;
+      this.meta = meta;
+      nulls = new long[(capacity + 63) >>> 6];
+    }
+
+    /** Whether the value at the row is null */
+    public boolean isNull(int row) { return (nulls[row >>> 6] & (1L << row)) != 0; }
+
+    /** The null bitmap where bit (row % 64) of word (row / 64) is set when the value is null */
+    public long[] nullBitmap() { return nulls; }
+
+    /** Decode the view's value for this column into the row, growing if needed */
+    protected void append(int row, RowView view) {
+      if (row >= capacity()) grow(Math.max(row + 1, capacity() * 2));
+      if (view.isNull(index)) nulls[row >>> 6] |= 1L << row;
+      else appendNotNull(row, view);
+    }
+
+    protected abstract int capacity();
+
+    protected void grow(int capacity) { nulls = Arrays.copyOf(nulls, (capacity + 63) >>> 6); }
+
+    protected abstract void appendNotNull(int row, RowView view);
+  }
+
+  /** Column of int values */
+  public static class IntColumn extends Column {
+    protected int[] values;
+
+    protected IntColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      super(index, meta, capacity);
+      values = new int[capacity];
+    }
+
+    /** The values by row */
+    public int[] values() { return values; }
+
+    @Override
+    protected int capacity() { return values.length; }
+
+    @Override
+    protected void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    protected void appendNotNull(int row, RowView view) { values[row] = view.getInt(index); }
+  }
+
+  /** Column of long values */
+  public static class LongColumn extends Column {
+    protected long[] values;
+
+    protected LongColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      super(index, meta, capacity);
+      values = new long[capacity];
+    }
+
+    /** The values by row */
+    public long[] values() { return values; }
+
+    @Override
+    protected int capacity() { return values.length; }
+
+    @Override
+    protected void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    protected void appendNotNull(int row, RowView view) { values[row] = view.getLong(index); }
+  }
+
+  /** Column of double values */
+  public static class DoubleColumn extends Column {
+    protected double[] values;
+
+    protected DoubleColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      super(index, meta, capacity);
+      values = new double[capacity];
+    }
+
+    /** The values by row */
+    public double[] values() { return values; }
+
+    @Override
+    protected int capacity() { return values.length; }
+
+    @Override
+    protected void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    protected void appendNotNull(int row, RowView view) { values[row] = view.getDouble(index); }
+  }
+
+  /** Column of boolean values */
+  public static class BooleanColumn extends Column {
+    protected boolean[] values;
+
+    protected BooleanColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      super(index, meta, capacity);
+      values = new boolean[capacity];
+    }
+
+    /** The values by row */
+    public boolean[] values() { return values; }
+
+    @Override
+    protected int capacity() { return values.length; }
+
+    @Override
+    protected void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    protected void appendNotNull(int row, RowView view) { values[row] = view.getBoolean(index); }
+  }
+
+  /**
+   * Column of raw values, all in one byte array. The value for a row is from {@code offsets[row]} up to
+   * {@code offsets[row + 1]}.
+   */
+  public static class BytesColumn extends Column {
+    protected byte[] data;
+    protected int dataLength;
+    protected int[] offsets;
+
+    protected BytesColumn(int index, QueryMessage.RowMeta.@Nullable Column meta, int capacity) {
+      super(index, meta, capacity);
+      data = new byte[Math.max(16, capacity * 8)];
+      offsets = new int[capacity + 1];
+    }
+
+    /** The values of every row one after another */
+    public byte[] data() { return data; }
+
+    /** The start of each row's value in {@link #data()}, with one more at the end */
+    public int[] offsets() { return offsets; }
+
+    /** Copy of the value at the row or null if null */
+    public byte@Nullable [] getBytes(int row) {
+      return isNull(row) ? null : Arrays.copyOfRange(data, offsets[row], offsets[row + 1]);
+    }
+
+    /** The value at the row decoded as a UTF-8 string or null if null */
+    public @Nullable String getString(int row) {
+      if (isNull(row)) return null;
+      return Util.stringFromByteBuffer(ByteBuffer.wrap(data, offsets[row], offsets[row + 1] - offsets[row]));
+    }
+
+    @Override
+    protected int capacity() { return offsets.length - 1; }
+
+    @Override
+    protected void grow(int capacity) {
+      super.grow(capacity);
+      offsets = Arrays.copyOf(offsets, capacity + 1);
+    }
+
+    @Override
+    protected void append(int row, RowView view) {
+      super.append(row, view);
+      offsets[row + 1] = dataLength;
+    }
+
+    @Override
+    protected void appendNotNull(int row, RowView view) {
+      int length = view.length(index);
+      if (dataLength + length > data.length) data = Arrays.copyOf(data, Math.max(dataLength + length, data.length * 2));
+      dataLength += view.copyBytes(index, data, dataLength);
+    }
+  }
+}
@@ -2,11 +2,22 @@ package pgnio;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import java.security.NoSuchAlgorithmException;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.logging.Logger;
 
@@ -14,11 +25,27 @@ import java.util.logging.Logger;
  * Configuration for connection and connection pools. While these are stored as public mutable fields, in general they
  * should not be mutated once they are in use. Doing so may result in undefined behavior.
  */
-public class Config {
+public class Config implements Cloneable {
   /** The hostname to connect to. Default 'localhost' */
   public String hostname = "localhost";
   /** The port to connect to. Default '5432' */
   public int port = 5432;
+  /**
+   * If set, the hosts to connect to instead of {@link #hostname} and {@link #port}, each as "host" or "host:port"
+   * (with IPv6 addresses in brackets). {@link Connection#authed(Config)} tries them all at once and keeps the first
+   * that matches {@link #targetSessionAttrs}. Default is null
+   */
+  public @Nullable List<String> hosts;
+  /** What kind of server session to accept when connecting to {@link #hosts}. Default {@link TargetSessionAttrs#ANY} */
+  public TargetSessionAttrs targetSessionAttrs = TargetSessionAttrs.ANY;
+  /**
+   * How long in {@link #hostConnectTimeoutUnit}s each of the {@link #hosts} gets to connect, authenticate, and be
+   * checked against {@link #targetSessionAttrs} before it is given up on. It is tracked on {@link #deadlineTimer}. 0
+   * means no limit. Default '10000'
+   */
+  public long hostConnectTimeout = 10000;
+  /** The unit for {@link #hostConnectTimeout}. Default {@link TimeUnit#MILLISECONDS} */
+  public TimeUnit hostConnectTimeoutUnit = TimeUnit.MILLISECONDS;
   /** The username to connect with. Default 'postgres' */
   public String username = "postgres";
   /** The password to connect with. May be null (the default) */
@@ -39,8 +66,56 @@ public class Config {
   public TimeUnit defaultTimeoutUnit = TimeUnit.MILLISECONDS;
   /** Whether to use "direct" byte buffers for building reads/writes */
   public boolean directBuffer = true;
-  /** The amount of bytes to add when the buffers need to grow. Default '1000' */
-  public int bufferStep = 1000;
+  /**
+   * The amount of bytes to add when the write buffer needs to grow, or 0 to at least double it. Doubling keeps the
+   * grown buffers in the size classes of {@link #bufferAllocator}. Default '0'
+   */
+  public int bufferStep = 0;
+  /**
+   * Where read and write buffers are allocated from. Buffers grown for large messages are released back to it once the
+   * connection no longer needs them. Default is {@link BufferAllocator#getDefault()}
+   */
+  public BufferAllocator bufferAllocator = BufferAllocator.getDefault();
+  /**
+   * The timer for {@link QueryReadyConnection#withDeadline} deadlines. Default is {@link DeadlineTimer#getDefault()}
+   */
+  public DeadlineTimer deadlineTimer = DeadlineTimer.getDefault();
+  /**
+   * How long in {@link #deadlineCancelGraceUnit}s a {@link QueryReadyConnection#withDeadline} deadline waits for the
+   * cancelled queries to unwind before failing anyway and closing the connection. Default '5000'
+   */
+  public long deadlineCancelGrace = 5000;
+  /** The unit for {@link #deadlineCancelGrace}. Default {@link TimeUnit#MILLISECONDS} */
+  public TimeUnit deadlineCancelGraceUnit = TimeUnit.MILLISECONDS;
+  /**
+   * Resolves and caches {@link #hostname} addresses and connects to them for the non-blocking IO connectors. Default is
+   * {@link HostResolver#getDefault()}
+   */
+  public HostResolver hostResolver = HostResolver.getDefault();
+  /**
+   * The initial size in bytes of the buffer that reads from the server are done into. As much as is available is read
+   * at once and every complete message in it is used before reading again. It will grow if a single message is larger
+   * and return to this size after. With SSL, it is at least {@link ConnectionIo.Ssl#minReadBufferSize()} so records
+   * can be decrypted straight into it. Default '16384'
+   */
+  public int readBufferSize = 16384;
+  /**
+   * The initial size in bytes of the buffer that messages to the server are built in. It is separate from the read
+   * buffer, grows as needed, and returns to this size when nothing is queued. Default '8192'
+   */
+  public int writeBufferSize = 8192;
+  /**
+   * Parse, bind, describe, execute, and close messages are queued in the write buffer and written together on the next
+   * sync, flush, or other message that expects a response. If the queued messages reach this many bytes, they are
+   * written immediately instead. Default '8192'
+   */
+  public int writeFlushThreshold = 8192;
+  /**
+   * Byte arrays of at least this size, such as large binary parameters and COPY data, are not copied into the write
+   * buffer but written from the array itself in a gathering write. They must not be changed until written. Default
+   * '8192'
+   */
+  public int gatherWriteThreshold = 8192;
   /** The internal Postgres protocol version in use. Default '196608' */
   public int protocolVersion = 196608;
   /** Additional Postgres parameters for connections. Null (the default) is the same as empty */
@@ -51,6 +126,30 @@ public class Config {
   public boolean preferText = true;
   /** The {@link ParamWriter} to use when converting query parameter objects to protocol values */
   public ParamWriter paramWriter = ParamWriter.DEFAULT;
+  /** The number of rows fetched for the first page of a {@link PortalCursor}. Default '100' */
+  public int cursorInitialPageRows = 100;
+  /**
+   * The most bytes of rows a {@link PortalCursor} aims to fetch per page, based on the average row size of the previous
+   * page. Default '4194304' (4 MB)
+   */
+  public long cursorPageBytes = 4 * 1024 * 1024;
+  /**
+   * The time a {@link PortalCursor} aims to spend fetching and consuming each page, based on the time per row of the
+   * previous page. Default '250'
+   */
+  public long cursorPageTime = 250;
+  /** The unit for {@link #cursorPageTime}. Default {@link TimeUnit#MILLISECONDS} */
+  public TimeUnit cursorPageTimeUnit = TimeUnit.MILLISECONDS;
+  /**
+   * If true, a {@link PortalCursor} executes each next page as soon as the previous one is read, hiding the round trip
+   * while it is consumed. Default false
+   */
+  public boolean cursorPrefetch;
+  /**
+   * The directory rows past the heap budget of {@link QueryResultConnection#collectRows(long)} are spilled to. Null
+   * (the default) is the default temp directory
+   */
+  public @Nullable String spillDirectory;
   /** The number of connections maintained in the {@link ConnectionPool} (when used) */
   public int poolSize = 5;
   /**
@@ -73,35 +172,145 @@ public class Config {
   public Function<Config, CompletableFuture<QueryReadyConnection.AutoCommit>> connector = Connection::authed;
   /**
    * Function to establish a {@link ConnectionIo} connection from a config. Default is
-   * {@link ConnectionIo.AsyncSocketChannel#connect(Config)}
+   * {@link ConnectionIo.AsyncSocketChannel#connect(Config)} or, if {@link #unixSocketPath} is set,
+   * {@link ConnectionIo.SelectorSocketChannel#connect(Config)}
    */
   @SuppressWarnings("initialization")
-  public Function<Config, CompletableFuture<? extends ConnectionIo>> ioConnector =
-      ConnectionIo.AsyncSocketChannel::connect;
+  public Function<Config, CompletableFuture<? extends ConnectionIo>> ioConnector = config ->
+      config.unixSocketPath == null ? ConnectionIo.AsyncSocketChannel.connect(config) :
+          ConnectionIo.SelectorSocketChannel.connect(config);
+  /**
+   * If set, the directory of the Unix domain socket to connect to instead of TCP, e.g. "/var/run/postgresql". The
+   * socket file in it is named from the {@link #port} like Postgres does. Requires Java 16 or newer. Only
+   * {@link ConnectionIo.SelectorSocketChannel} supports it, the other IO types fail to connect when it is set. Default
+   * is null
+   */
+  public @Nullable String unixSocketPath;
+  /**
+   * The loops used by {@link ConnectionIo.SelectorSocketChannel} when it is the {@link #ioConnector}. Default is null
+   * which means {@link SelectorGroup#getDefault()}
+   */
+  public @Nullable SelectorGroup selectorGroup;
   /**
    * {@link SSLContext} that is used by the default {@link #sslWrapper} call to obtain an SSL connection. The context
-   * must be "initialized".
+   * must be "initialized". It is only needed when the key and trust stores in the standard {@code javax.net.ssl}
+   * system properties are not enough.
    */
   public @Nullable SSLContext sslContextOverride;
+  // Created on first use if there is no override and shared with copies, so its session cache is only theirs
+  protected final AtomicReference<@Nullable SSLContext> sslContext = new AtomicReference<>();
   /**
    * Function to start SSL over a {@link ConnectionIo} and return a new one secure and ready to use. The default uses
-   * {@link #sslContextOverride} if present or {@link SSLContext#getDefault()} otherwise. It uses
-   * {@link ConnectionIo.Ssl} to wrap the insecure IO.
+   * {@link #sslContextOverride} if present. Otherwise it uses a context with key and trust managers from the same
+   * {@code javax.net.ssl} system properties as {@link SSLContext#getDefault()}, created for this config on first use
+   * and shared with its copies. It uses {@link ConnectionIo.Ssl} to wrap the insecure IO. The engine is created for
+   * the {@link #hostname} and {@link #port} so later connections with the same context can resume the session from its
+   * client session cache instead of doing a full handshake.
    */
   @SuppressWarnings("initialization")
-  public Function<ConnectionIo, CompletableFuture<? extends ConnectionIo>> sslWrapper = (io) -> {
+  public Function<ConnectionIo, CompletableFuture<? extends ConnectionIo>> sslWrapper = this::wrapSsl;
+  // Kept so copies know whether to replace it with their own that uses their hostname and port
+  @SuppressWarnings("initialization")
+  protected Function<ConnectionIo, CompletableFuture<? extends ConnectionIo>> defaultSslWrapper = sslWrapper;
+
+  protected CompletableFuture<? extends ConnectionIo> wrapSsl(ConnectionIo io) {
+    SSLContext ctx = sslContextOverride == null ? defaultSslContext() : sslContextOverride;
+    ConnectionIo.Ssl sslIo = new ConnectionIo.Ssl(io, ctx.createSSLEngine(hostname, port),
+        ctx.getClientSessionContext(), directBuffer, defaultTimeout, defaultTimeoutUnit);
+    return sslIo.start().thenApply(__ -> sslIo);
+  }
+
+  protected SSLContext defaultSslContext() {
+    SSLContext ret = sslContext.get();
+    if (ret != null) return ret;
+    try {
+      // Not the default context itself because its session cache would be shared by every config
+      KeyManagerFactory keyMgrFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      String password = systemProperty("javax.net.ssl.keyStorePassword", "");
+      char @Nullable [] keyStorePassword = password.isEmpty() ? null : password.toCharArray();
+      keyMgrFactory.init(systemKeyStore(keyStorePassword), keyStorePassword);
+      TrustManagerFactory trustMgrFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      // A null key store makes it read the javax.net.ssl.trustStore properties like the default context does
+      trustMgrFactory.init((KeyStore) null);
+      ret = SSLContext.getInstance("TLS");
+      ret.init(keyMgrFactory.getKeyManagers(), trustMgrFactory.getTrustManagers(), null);
+    } catch (GeneralSecurityException | IOException e) { throw new RuntimeException(e); }
+    return sslContext.compareAndSet(null, ret) ? ret : sslContext.get();
+  }
+
+  // The key store from the javax.net.ssl.keyStore properties the same way the default context loads it
+  protected static @Nullable KeyStore systemKeyStore(char @Nullable [] password)
+      throws GeneralSecurityException, IOException {
+    String path = systemProperty("javax.net.ssl.keyStore", "");
+    if (path.isEmpty()) return null;
+    String type = systemProperty("javax.net.ssl.keyStoreType", KeyStore.getDefaultType());
+    String provider = systemProperty("javax.net.ssl.keyStoreProvider", "");
+    KeyStore ret = provider.isEmpty() ? KeyStore.getInstance(type) : KeyStore.getInstance(type, provider);
+    // NONE is for stores that are not files, e.g. PKCS11
+    if (path.equals("NONE")) ret.load(null, password);
+    else try (InputStream in = new FileInputStream(path)) { ret.load(in, password); }
+    return ret;
+  }
+
+  protected static String systemProperty(String key, String defaultValue) {
+    String ret = System.getProperty(key);
+    return ret == null ? defaultValue : ret;
+  }
+
+  /** A shallow copy of this config. Changing fields on the copy does not affect this one. */
+  public Config copy() {
+    Config ret;
     try {
-      SSLContext ctx = sslContextOverride == null ? SSLContext.getDefault() : sslContextOverride;
-      ConnectionIo.Ssl sslIo = new ConnectionIo.Ssl(io, ctx.createSSLEngine(),
-          directBuffer, defaultTimeout, defaultTimeoutUnit);
-      return sslIo.start().thenApply(__ -> sslIo);
-    } catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
-  };
+      ret = (Config) clone();
+    } catch (CloneNotSupportedException e) { throw new RuntimeException(e); }
+    if (sslWrapper == defaultSslWrapper) ret.sslWrapper = ret.defaultSslWrapper = ret::wrapSsl;
+    return ret;
+  }
+
+  /**
+   * A copy of this config for each of the {@link #hosts} with its {@link #hostname} and {@link #port} set and no hosts,
+   * or just this config if there are no hosts
+   */
+  public List<Config> hostConfigs() {
+    if (hosts == null || hosts.isEmpty()) return Collections.singletonList(this);
+    List<Config> ret = new ArrayList<>(hosts.size());
+    for (String host : hosts) {
+      Config conf = copy();
+      conf.hosts = null;
+      // Take the port off the end unless it's an IPv6 address without brackets
+      int portIndex = host.lastIndexOf(':');
+      if (portIndex != -1 && (host.startsWith("[") ? host.lastIndexOf(']') < portIndex :
+          host.indexOf(':') == portIndex)) {
+        conf.port = Integer.parseInt(host.substring(portIndex + 1));
+        host = host.substring(0, portIndex);
+      }
+      if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+      conf.hostname = host;
+      ret.add(conf);
+    }
+    return ret;
+  }
 
   /** @see #hostname */
   public Config hostname(String hostname) { this.hostname = hostname; return this; }
   /** @see #port */
   public Config port(int port) { this.port = port; return this; }
+  /** @see #hosts */
+  public Config hosts(String... hosts) { this.hosts = Arrays.asList(hosts); return this; }
+  /** @see #targetSessionAttrs */
+  public Config targetSessionAttrs(TargetSessionAttrs targetSessionAttrs) {
+    this.targetSessionAttrs = targetSessionAttrs;
+    return this;
+  }
+  /**
+   * @see #hostConnectTimeout
+   * @see #hostConnectTimeoutUnit
+   */
+  public Config hostConnectTimeout(long hostConnectTimeout, TimeUnit hostConnectTimeoutUnit) {
+    this.hostConnectTimeout = hostConnectTimeout;
+    this.hostConnectTimeoutUnit = hostConnectTimeoutUnit;
+    return this;
+  }
   /** @see #username */
   public Config username(String username) { this.username = username; return this; }
   /** @see #password */
@@ -123,6 +332,38 @@ public class Config {
   public Config directBuffer(boolean directBuffer) { this.directBuffer = directBuffer; return this; }
   /** @see #bufferStep */
   public Config bufferStep(int bufferStep) { this.bufferStep = bufferStep; return this; }
+  /** @see #bufferAllocator */
+  public Config bufferAllocator(BufferAllocator bufferAllocator) {
+    this.bufferAllocator = bufferAllocator;
+    return this;
+  }
+  /** @see #deadlineTimer */
+  public Config deadlineTimer(DeadlineTimer deadlineTimer) { this.deadlineTimer = deadlineTimer; return this; }
+  /**
+   * @see #deadlineCancelGrace
+   * @see #deadlineCancelGraceUnit
+   */
+  public Config deadlineCancelGrace(long deadlineCancelGrace, TimeUnit deadlineCancelGraceUnit) {
+    this.deadlineCancelGrace = deadlineCancelGrace;
+    this.deadlineCancelGraceUnit = deadlineCancelGraceUnit;
+    return this;
+  }
+  /** @see #hostResolver */
+  public Config hostResolver(HostResolver hostResolver) { this.hostResolver = hostResolver; return this; }
+  /** @see #readBufferSize */
+  public Config readBufferSize(int readBufferSize) { this.readBufferSize = readBufferSize; return this; }
+  /** @see #writeBufferSize */
+  public Config writeBufferSize(int writeBufferSize) { this.writeBufferSize = writeBufferSize; return this; }
+  /** @see #gatherWriteThreshold */
+  public Config gatherWriteThreshold(int gatherWriteThreshold) {
+    this.gatherWriteThreshold = gatherWriteThreshold;
+    return this;
+  }
+  /** @see #writeFlushThreshold */
+  public Config writeFlushThreshold(int writeFlushThreshold) {
+    this.writeFlushThreshold = writeFlushThreshold;
+    return this;
+  }
   /** @see #protocolVersion */
   public Config protocolVersion(int protocolVersion) { this.protocolVersion = protocolVersion; return this; }
   /** @see #additionalStartupParams */
@@ -136,6 +377,26 @@ public class Config {
   public Config preferText(boolean preferText) { this.preferText = preferText; return this; }
   /** @see #paramWriter */
   public Config paramWriter(ParamWriter paramWriter) { this.paramWriter = paramWriter; return this; }
+  /** @see #cursorInitialPageRows */
+  public Config cursorInitialPageRows(int cursorInitialPageRows) {
+    this.cursorInitialPageRows = cursorInitialPageRows;
+    return this;
+  }
+  /** @see #cursorPageBytes */
+  public Config cursorPageBytes(long cursorPageBytes) { this.cursorPageBytes = cursorPageBytes; return this; }
+  /**
+   * @see #cursorPageTime
+   * @see #cursorPageTimeUnit
+   */
+  public Config cursorPageTime(long cursorPageTime, TimeUnit cursorPageTimeUnit) {
+    this.cursorPageTime = cursorPageTime;
+    this.cursorPageTimeUnit = cursorPageTimeUnit;
+    return this;
+  }
+  /** @see #cursorPrefetch */
+  public Config cursorPrefetch(boolean cursorPrefetch) { this.cursorPrefetch = cursorPrefetch; return this; }
+  /** @see #spillDirectory */
+  public Config spillDirectory(@Nullable String spillDirectory) { this.spillDirectory = spillDirectory; return this; }
   /** @see #poolSize */
   public Config poolSize(int poolSize) { this.poolSize = poolSize; return this; }
   /** @see #poolValidationQuery */
@@ -163,6 +424,10 @@ public class Config {
     this.ioConnector = ioConnector;
     return this;
   }
+  /** @see #unixSocketPath */
+  public Config unixSocketPath(String unixSocketPath) { this.unixSocketPath = unixSocketPath; return this; }
+  /** @see #selectorGroup */
+  public Config selectorGroup(SelectorGroup selectorGroup) { this.selectorGroup = selectorGroup; return this; }
   /** @see #sslContextOverride */
   public Config sslContextOverride(SSLContext sslContextOverride) {
     this.sslContextOverride = sslContextOverride;
@@ -173,4 +438,23 @@ public class Config {
     this.sslWrapper = sslWrapper;
     return this;
   }
+
+  /** Kinds of server sessions to accept, named after the libpq "target_session_attrs" values */
+  public enum TargetSessionAttrs {
+    /** Any server */
+    ANY,
+    /** A server that is not in recovery and where transactions are not read only by default */
+    READ_WRITE,
+    /** A server in recovery or where transactions are read only by default */
+    READ_ONLY,
+    /** A server that is not in recovery */
+    PRIMARY,
+    /** A server in recovery */
+    STANDBY,
+    /**
+     * A server in recovery, or any server if none of the hosts are. Hosts are preferred in order, so the first that is
+     * not in recovery is used once every host before it has answered without being in recovery.
+     */
+    PREFER_STANDBY
+  }
 }
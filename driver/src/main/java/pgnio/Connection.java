@@ -2,17 +2,22 @@ package pgnio;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,11 +33,107 @@ public abstract class Connection implements AutoCloseable {
     return config.ioConnector.apply(config).thenApply(io -> new Startup(config, io));
   }
 
-  /** {@link #init(Config)} + {@link Startup#auth()} */
+  /**
+   * {@link #init(Config)} + {@link Startup#auth()}. If {@link Config#hosts} is set, this connects to all of them at
+   * once, keeps the first that matches {@link Config#targetSessionAttrs}, and terminates the rest. Each host is given
+   * up on after {@link Config#hostConnectTimeout}. The kept connection's context has the config of the host it
+   * connected to.
+   */
   public static CompletableFuture<QueryReadyConnection.AutoCommit> authed(Config config) {
+    if (config.hosts != null && !config.hosts.isEmpty()) return authedAnyHost(config);
     return init(config).thenCompose(Startup::auth);
   }
 
+  protected static CompletableFuture<QueryReadyConnection.AutoCommit> authedAnyHost(Config config) {
+    List<Config> hostConfigs = config.hostConfigs();
+    Config.TargetSessionAttrs attrs = config.targetSessionAttrs;
+    CompletableFuture<QueryReadyConnection.AutoCommit> ret = new CompletableFuture<>();
+    // Connections that didn't match but can be used for prefer-standby, by host index
+    QueryReadyConnection.@Nullable AutoCommit[] fallbacks = new QueryReadyConnection.AutoCommit[hostConfigs.size()];
+    // Only accessed while synchronized on the fallbacks
+    boolean[] answered = new boolean[hostConfigs.size()];
+    int[] remaining = { hostConfigs.size() };
+    DriverException.NoMatchingHost noMatch = new DriverException.NoMatchingHost(attrs);
+    for (int i = 0; i < hostConfigs.size(); i++) {
+      int hostIndex = i;
+      Config hostConfig = hostConfigs.get(i);
+      log.log(Level.FINE, "Trying host {0}:{1}", new Object[] { hostConfig.hostname, hostConfig.port });
+      withHostConnectTimeout(hostConfig, init(hostConfig).thenCompose(Startup::auth).thenCompose(conn ->
+          conn.matchesTargetSessionAttrs(attrs).handle((matches, ex) -> {
+            if (ex != null) return conn.<QueryReadyConnection.@Nullable AutoCommit>terminated(null, ex);
+            if (matches) return CompletableFuture.<QueryReadyConnection.@Nullable AutoCommit>completedFuture(conn);
+            if (attrs != Config.TargetSessionAttrs.PREFER_STANDBY) {
+              conn.terminate();
+              return CompletableFuture.<QueryReadyConnection.@Nullable AutoCommit>completedFuture(null);
+            }
+            conn.ctx.targetSessionAttrsUnmatched = true;
+            return CompletableFuture.<QueryReadyConnection.@Nullable AutoCommit>completedFuture(conn);
+          }).thenCompose(Function.identity())
+      )).whenComplete((conn, ex) -> {
+        synchronized (fallbacks) {
+          remaining[0]--;
+          answered[hostIndex] = true;
+          if (ex != null) noMatch.addSuppressed(ex);
+          if (conn != null && (!conn.ctx.targetSessionAttrsUnmatched || ret.isDone())) {
+            if (!ret.complete(conn)) conn.terminate();
+          } else if (conn != null) {
+            fallbacks[hostIndex] = conn;
+          }
+          // Fall back to the first unmatched host once every host before it has answered without a match
+          for (int j = 0; j < fallbacks.length && answered[j] && !ret.isDone(); j++) {
+            QueryReadyConnection.@Nullable AutoCommit fallback = fallbacks[j];
+            if (fallback != null && ret.complete(fallback)) fallbacks[j] = null;
+          }
+          if (remaining[0] == 0 && !ret.isDone()) ret.completeExceptionally(noMatch);
+          if (!ret.isDone()) return;
+          for (int j = 0; j < fallbacks.length; j++) {
+            QueryReadyConnection.@Nullable AutoCommit unused = fallbacks[j];
+            if (unused != null) unused.terminate();
+            fallbacks[j] = null;
+          }
+        }
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Fail the attempt to connect to the host after {@link Config#hostConnectTimeout}, terminating the connection if it
+   * is made after that
+   */
+  protected static <T extends @Nullable Started> CompletableFuture<T> withHostConnectTimeout(Config hostConfig,
+      CompletableFuture<T> attempt) {
+    if (hostConfig.hostConnectTimeout == 0) return attempt;
+    CompletableFuture<T> ret = new CompletableFuture<>();
+    DeadlineTimer.Timeout timeout = hostConfig.deadlineTimer.schedule(() -> ret.completeExceptionally(
+        new DriverException.HostConnectTimeout(hostConfig.hostname, hostConfig.port, hostConfig.hostConnectTimeout,
+            hostConfig.hostConnectTimeoutUnit)), hostConfig.hostConnectTimeout, hostConfig.hostConnectTimeoutUnit);
+    attempt.whenComplete((conn, ex) -> {
+      timeout.cancel();
+      if (ex != null) ret.completeExceptionally(ex);
+      else if (!ret.complete(conn) && conn != null) conn.terminate();
+    });
+    return ret;
+  }
+
+  /**
+   * The number of backend messages in a row that can be taken synchronously from the read-ahead buffer before one is
+   * handed off to another thread to unwind the stack of composed futures. Driver loops use {@link #loop(Supplier)} so
+   * this only comes into play for callers that recurse on their own, and never for a {@link ConnectionIo#isBlocking()}
+   * IO whose reads must stay on the caller's thread. Such callers have to loop instead of recursing.
+   */
+  protected static final int MAX_BUFFERED_READS_ON_STACK = 32;
+  /** Step result for {@link #loop(Supplier)} to keep going. Only ever given to the loop, never completed by anyone. */
+  protected static final CompletableFuture<Boolean> LOOP_CONTINUE = CompletableFuture.completedFuture(true);
+  /** Step result for {@link #loop(Supplier)} to stop. Only ever given to the loop, never completed by anyone. */
+  protected static final CompletableFuture<Boolean> LOOP_STOP = CompletableFuture.completedFuture(false);
+
+  /** {@link #LOOP_CONTINUE} if the future is already successfully complete, otherwise true once it completes */
+  protected static CompletableFuture<Boolean> continueAfter(CompletableFuture<?> fut) {
+    if (fut.isDone() && !fut.isCompletedExceptionally()) return LOOP_CONTINUE;
+    return fut.thenApply(__ -> true);
+  }
+
   protected final Context ctx;
 
   protected Connection(Context ctx) { this.ctx = ctx; }
@@ -45,9 +146,8 @@ public abstract class Connection implements AutoCloseable {
   public void close() throws ExecutionException, InterruptedException { terminate().get(); }
 
   protected CompletableFuture<Void> sendTerminate() {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'X').writeLengthIntBegin().writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage();
   }
 
@@ -55,6 +155,7 @@ public abstract class Connection implements AutoCloseable {
   public CompletableFuture<Void> terminate() {
     return sendTerminate().handle((__, termEx) ->
       ctx.io.close().handle((___, closeEx) -> {
+        ctx.releaseBuffers();
         Throwable ex = termEx != null ? termEx : closeEx;
         if (ex == null) return (Void) null;
         if (termEx != null && closeEx != null) log.log(Level.WARNING, "Failed closing", closeEx);
@@ -104,53 +205,191 @@ public abstract class Connection implements AutoCloseable {
     return readBackendMessage(ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit);
   }
 
+  /**
+   * Read the next backend message into the buffer. Messages are parsed out of {@link Context#readAheadBuf} which is
+   * filled with as much as the socket has available, so the socket is only read when the read-ahead buffer holds a
+   * partial message.
+   */
   protected CompletableFuture<Void> readBackendMessage(long timeout, TimeUnit timeoutUnit) {
-    ctx.buf.clear();
+    // Anything still queued has to go out first or we may wait on a response to something never sent. A pipeline reads
+    // while queries are still being queued on another thread, so only it writes them.
+    if (!ctx.pipelining && ctx.queuedFrontendMessages > 0)
+      return writeFrontendMessage(timeout, timeoutUnit).thenCompose(__ -> readBackendMessage(timeout, timeoutUnit));
+    // Take the message right from what is buffered if we can
+    if (hasBufferedBackendMessage()) {
+      // Don't let a long run of buffered messages grow the stack of composed futures indefinitely
+      if (!ctx.io.isBlocking() && ++ctx.bufferedReadsOnStack > MAX_BUFFERED_READS_ON_STACK) {
+        ctx.bufferedReadsOnStack = 0;
+        // The default async executor starts a thread per task when the common pool has no parallelism
+        return CompletableFuture.runAsync(this::takeBufferedBackendMessage, ForkJoinPool.commonPool());
+      }
+      takeBufferedBackendMessage();
+      return CompletableFuture.completedFuture(null);
+    }
+    ctx.bufferedReadsOnStack = 0;
     // We need 5 bytes to get the type and size
-    ctx.writeEnsureCapacity(5).limit(5);
-    return ctx.io.readFull(ctx.buf, timeout, timeoutUnit).thenCompose(__ -> {
-      // Now that we have the size, make sure we have enough capacity to fulfill it and reset the limit
-      int messageSize = ctx.buf.getInt(1);
-      if (log.isLoggable(Level.FINER))
-        log.log(Level.FINER, "{0} Read message header of type {1} with size {2}",
-            new Object[] { ctx, (char) ctx.buf.get(0), messageSize });
-      ctx.writeEnsureCapacity(messageSize).limit(1 + messageSize);
-      // Fill it with the rest of the message and flip it for use
-      return ctx.io.readFull(ctx.buf, timeout, timeoutUnit).thenRun(() -> ctx.buf.flip());
-    });
+    return fillReadAheadBuf(5, timeout, timeoutUnit).thenCompose(__ -> {
+      // Now that we have the size, make sure we have the rest of the message buffered
+      int messageSize = ctx.readAheadBuf.getInt(ctx.readAheadBuf.position() + 1);
+      return fillReadAheadBuf(1 + messageSize, timeout, timeoutUnit);
+    }).thenRun(this::takeBufferedBackendMessage);
+  }
+
+  /** Whether a whole backend message is in the read-ahead buffer so it can be taken without reading */
+  protected boolean hasBufferedBackendMessage() {
+    return ctx.readAheadBuf.remaining() >= 5 &&
+        ctx.readAheadBuf.remaining() >= 1 + ctx.readAheadBuf.getInt(ctx.readAheadBuf.position() + 1);
+  }
+
+  /**
+   * Run the step until its future gives false, as a trampoline. Steps whose futures are already complete are run one
+   * after another in a loop on this stack, and only a step that is actually waiting on IO suspends the loop, which then
+   * resumes wherever that completes. So looping over buffered messages neither grows the stack nor composes a future
+   * per message. The returned future fails with the first failed step.
+   */
+  protected CompletableFuture<Void> loop(Supplier<CompletableFuture<Boolean>> step) {
+    CompletableFuture<Void> ret = new CompletableFuture<>();
+    loop(step, ret);
+    return ret;
+  }
+
+  protected void loop(Supplier<CompletableFuture<Boolean>> step, CompletableFuture<Void> ret) {
+    while (true) {
+      // Each step starts from the same stack depth, so its buffered reads don't need to hop threads
+      ctx.bufferedReadsOnStack = 0;
+      CompletableFuture<Boolean> next;
+      try {
+        next = step.get();
+      } catch (Throwable e) {
+        ret.completeExceptionally(e);
+        return;
+      }
+      if (!next.isDone() || next.isCompletedExceptionally()) {
+        next.whenComplete((more, ex) -> {
+          if (ex != null) ret.completeExceptionally(ex);
+          else if (more) loop(step, ret);
+          else ret.complete(null);
+        });
+        return;
+      }
+      if (!next.join()) {
+        ret.complete(null);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Fill the read-ahead buffer until it has at least the needed amount of bytes, growing it if necessary. Reads that
+   * complete immediately, like every read of a blocking IO, are looped over on this stack instead of recursing, so a
+   * large message doesn't grow the stack per read.
+   */
+  protected CompletableFuture<Void> fillReadAheadBuf(int needed, long timeout, TimeUnit timeoutUnit) {
+    while (ctx.readAheadBuf.remaining() < needed) {
+      ByteBuffer oldBuf = ctx.readAheadBuf;
+      int normalSize = ctx.readBufferSize;
+      if (oldBuf.capacity() < needed || oldBuf.capacity() < normalSize ||
+          (needed <= normalSize && oldBuf.capacity() / 2 >= normalSize)) {
+        // Grow for a large message or a new IO that needs more room or, once past a large message, go back to the
+        // normal size and release the large buffer
+        int newAmount = oldBuf.capacity() < needed ? Math.max(needed, oldBuf.capacity() * 2) : normalSize;
+        ctx.readAheadBuf = ctx.allocator.allocate(newAmount, ctx.directBuffer).put(oldBuf);
+        ctx.allocator.release(oldBuf);
+      } else {
+        ctx.readAheadBuf.compact();
+      }
+      CompletableFuture<Void> read = ctx.io.readSome(ctx.readAheadBuf, timeout, timeoutUnit);
+      if (!read.isDone() || read.isCompletedExceptionally()) {
+        return read.thenCompose(__ -> {
+          ctx.readAheadBuf.flip();
+          return fillReadAheadBuf(needed, timeout, timeoutUnit);
+        });
+      }
+      ctx.readAheadBuf.flip();
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Set {@link Context#readBuf} to the fully buffered message at the front of the read-ahead buffer and move past it.
+   * Nothing is copied, the read buffer is a view into the read-ahead buffer.
+   */
+  protected void takeBufferedBackendMessage() {
+    int messageSize = ctx.readAheadBuf.getInt(ctx.readAheadBuf.position() + 1);
+    if (log.isLoggable(Level.FINER))
+      log.log(Level.FINER, "{0} Read message header of type {1} with size {2}",
+          new Object[] { ctx, (char) ctx.readAheadBuf.get(ctx.readAheadBuf.position()), messageSize });
+    int prevLimit = ctx.readAheadBuf.limit();
+    int nextPosition = ctx.readAheadBuf.position() + 1 + messageSize;
+    ctx.readAheadBuf.limit(nextPosition);
+    ctx.readBuf = ctx.readAheadBuf.slice();
+    ctx.readAheadBuf.limit(prevLimit).position(nextPosition);
+  }
+
+  /**
+   * Prepare the buffer for a frontend message to be written. If there are already messages queued via
+   * {@link #queueFrontendMessage()}, this message will be written after them.
+   */
+  protected void beginFrontendMessage() {
+    if (ctx.queuedFrontendMessages == 0) {
+      // Nothing is pending, so this is when a buffer grown for a large message is released
+      ctx.shrinkBuffer(ctx.config.writeBufferSize);
+      ctx.buf.clear();
+      ctx.clearGathered();
+    }
+  }
+
+  /**
+   * Leave the frontend message in the buffer to be written with the next {@link #writeFrontendMessage()}. If the
+   * queued messages reach {@link Config#writeFlushThreshold} in size, they are all written now.
+   */
+  protected CompletableFuture<Void> queueFrontendMessage() {
+    ctx.queuedFrontendMessages++;
+    if (ctx.writePosition() < ctx.config.writeFlushThreshold) return CompletableFuture.completedFuture(null);
+    return writeFrontendMessage();
   }
 
   protected CompletableFuture<Void> writeFrontendMessage() {
     return writeFrontendMessage(ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit);
   }
 
+  /**
+   * Write the frontend message(s) in the buffer, including any queued, in a single write. Large arrays kept out of the
+   * buffer are written along with it in a gathering write.
+   */
   protected CompletableFuture<Void> writeFrontendMessage(long timeout, TimeUnit timeoutUnit) {
     if (log.isLoggable(Level.FINER))
-      log.log(Level.FINER, "{0} Writing message with first char {1} and size {2}",
-          new Object[] { ctx, (char) ctx.buf.get(0), ctx.buf.limit() });
-    return ctx.io.writeFull(ctx.buf, timeout, timeoutUnit).thenRun(() -> ctx.buf.clear());
+      log.log(Level.FINER, "{0} Writing message(s) with first char {1} and size {2}",
+          new Object[] { ctx, (char) ctx.buf.get(0), ctx.writePosition() });
+    ctx.buf.flip();
+    ctx.queuedFrontendMessages = 0;
+    if (ctx.gathered.isEmpty()) return ctx.io.writeFull(ctx.buf, timeout, timeoutUnit).thenRun(() -> ctx.buf.clear());
+    return ctx.io.writeFull(ctx.gatheredWriteBufs(), timeout, timeoutUnit).thenRun(() -> {
+      ctx.buf.clear();
+      ctx.clearGathered();
+    });
   }
 
   /**
-   * Assuming buffer populated w/ message, this peeks and if it is a general message, it handles it and returns a
+   * Assuming read buffer populated w/ message, this peeks and if it is a general message, it handles it and returns a
    * future. If it is not a general message, it returns null.
    */
   protected @Nullable CompletableFuture<Void> handleGeneralResponse() {
-    char typ = (char) ctx.buf.get(0);
+    char typ = (char) ctx.readBuf.get(0);
     switch (typ) {
       // Notification Response
       case 'A':
-        ctx.buf.position(5);
-        return notifications().publish(new Subscribable.Notification(ctx.buf.getInt(), ctx.bufReadString(), ctx.bufReadString()));
+        ctx.readBuf.position(5);
+        return notifications().publish(new Subscribable.Notification(ctx.readBuf.getInt(), ctx.bufReadString(), ctx.bufReadString()));
       // ErrorMessage
       case 'E':
       // NoticeResponse
       case 'N':
         // Throw error or handle notice after skipping the length
-        ctx.buf.position(5);
+        ctx.readBuf.position(5);
         Map<Byte, String> fields = new HashMap<>();
         while (true) {
-          byte b = ctx.buf.get();
+          byte b = ctx.readBuf.get();
           if (b == 0) break;
           fields.put(b, ctx.bufReadString());
         }
@@ -167,7 +406,7 @@ public abstract class Connection implements AutoCloseable {
       // ParameterStatus
       case 'S':
         // Handle status after skipping length
-        ctx.buf.position(5);
+        ctx.readBuf.position(5);
         Subscribable.ParameterStatus status =
             new Subscribable.ParameterStatus(ctx.bufReadString(), ctx.bufReadString());
         ctx.runtimeParameters.put(status.parameter, status.value);
@@ -185,9 +424,9 @@ public abstract class Connection implements AutoCloseable {
     });
   }
 
-  /** Assuming buffer is at position to read status, this reads it and sets it */
+  /** Assuming read buffer is at position to read status, this reads it and sets it */
   protected void updateReadyForQueryTransactionStatus() {
-    char status = (char) ctx.buf.get();
+    char status = (char) ctx.readBuf.get();
     switch (status) {
       case 'I':
         ctx.lastTransactionStatus = QueryReadyConnection.TransactionStatus.IDLE;
@@ -217,12 +456,42 @@ public abstract class Connection implements AutoCloseable {
     protected final Map<String, String> runtimeParameters = new HashMap<>();
     protected QueryReadyConnection.@Nullable TransactionStatus lastTransactionStatus;
     protected boolean ignoreErrors;
+    // Set when connected to only as a prefer-standby fallback, before the host's attempt completes
+    protected boolean targetSessionAttrsUnmatched;
+    /**
+     * Bytes read from the server but not yet taken as messages. This is always flipped for reading, so the unread
+     * bytes are between the position and the limit.
+     */
+    protected ByteBuffer readAheadBuf;
+    /** The size the read-ahead buffer goes back to, {@link Config#readBufferSize} or more if the IO needs it */
+    protected int readBufferSize;
+    /**
+     * The last message read from the server, with the message type at index 0. This is only valid until the next
+     * message is read. Writes go to {@link #buf} which is never used for reading.
+     */
+    public ByteBuffer readBuf;
+    protected int bufferedReadsOnStack;
+    /** The number of frontend messages in the buffer waiting to be written */
+    protected int queuedFrontendMessages;
+    /** Whether a {@link QueryPipelineConnection} is in use, whose reads must not write queued messages */
+    protected boolean pipelining;
+    /**
+     * Arrays of at least {@link Config#gatherWriteThreshold} bytes given to {@link #writeBytes(byte[])}. They are not
+     * copied into {@link #buf} but written after the bytes before the matching position in {@link #gatheredAt}.
+     */
+    protected final List<ByteBuffer> gathered = new ArrayList<>();
+    protected final List<Integer> gatheredAt = new ArrayList<>();
+    protected int gatheredBytes;
 
     @SuppressWarnings("initialization")
     public Context(Config config, ConnectionIo io) {
-      super(config.directBuffer, config.bufferStep);
+      super(config.bufferAllocator, config.directBuffer, config.bufferStep, config.writeBufferSize);
       this.config = config;
       this.io = io;
+      readBufferSize = Math.max(config.readBufferSize, io.minReadBufferSize());
+      readAheadBuf = allocator.allocate(readBufferSize, config.directBuffer);
+      readAheadBuf.limit(0);
+      readBuf = readAheadBuf.slice();
       // Add the notice log if we are logging em
       if (config.logNotices) noticeSubscribable.subscribe(n -> {
         n.log(log, this);
@@ -230,17 +499,62 @@ public abstract class Connection implements AutoCloseable {
       });
     }
 
-    /** Read a null-terminated string off the buffer */
+    /**
+     * Give the read and write buffers back to the allocator once the connection is closed, leaving empty ones in their
+     * place so nothing else that is still pooled gets written to
+     */
+    protected void releaseBuffers() {
+      if (buf.capacity() == 0) return;
+      allocator.release(buf);
+      allocator.release(readAheadBuf);
+      buf = ByteBuffer.allocate(0);
+      readAheadBuf = ByteBuffer.allocate(0);
+      readBuf = readAheadBuf.slice();
+    }
+
+    @Override
+    public Context writeBytes(byte[] b) {
+      if (b.length < config.gatherWriteThreshold) return super.writeBytes(b);
+      gathered.add(ByteBuffer.wrap(b));
+      gatheredAt.add(buf.position());
+      gatheredBytes += b.length;
+      return this;
+    }
+
+    @Override
+    public int writePosition() { return buf.position() + gatheredBytes; }
+
+    /** The flipped {@link #buf} split around the {@link #gathered} arrays, in the order to write them */
+    protected ByteBuffer[] gatheredWriteBufs() {
+      ByteBuffer[] ret = new ByteBuffer[gathered.size() * 2 + 1];
+      int start = 0;
+      for (int i = 0; i < gathered.size(); i++) {
+        int end = gatheredAt.get(i);
+        ret[i * 2] = (ByteBuffer) buf.duplicate().position(start).limit(end);
+        ret[i * 2 + 1] = gathered.get(i);
+        start = end;
+      }
+      ret[ret.length - 1] = (ByteBuffer) buf.duplicate().position(start);
+      return ret;
+    }
+
+    protected void clearGathered() {
+      gathered.clear();
+      gatheredAt.clear();
+      gatheredBytes = 0;
+    }
+
+    /** Read a null-terminated string off the read buffer */
     public String bufReadString() {
-      int indexOfZero = buf.position();
-      while (buf.get(indexOfZero) != 0) indexOfZero++;
+      int indexOfZero = readBuf.position();
+      while (readBuf.get(indexOfZero) != 0) indexOfZero++;
       // Temporarily put the limit for decoding
-      int prevLimit = buf.limit();
-      buf.limit(indexOfZero);
-      String ret = Util.stringFromByteBuffer(buf);
-      buf.limit(prevLimit);
+      int prevLimit = readBuf.limit();
+      readBuf.limit(indexOfZero);
+      String ret = Util.stringFromByteBuffer(readBuf);
+      readBuf.limit(prevLimit);
       // Read the zero
-      buf.position(buf.position() + 1);
+      readBuf.position(readBuf.position() + 1);
       return ret;
     }
 
@@ -266,14 +580,15 @@ public abstract class Connection implements AutoCloseable {
     protected CompletableFuture<Void> startSsl(boolean required) {
       log.log(Level.FINE, "{0} Starting SSL", ctx);
       // Send SSLRequest
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeInt(8).writeInt(80877103);
-      ctx.buf.flip();
       return writeFrontendMessage().thenCompose(__ -> {
         // Just a single byte of 'S' or 'N' (yes or no)
-        ctx.buf.clear().limit(1);
-        return ctx.io.readFull(ctx.buf, ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit).thenCompose(___ -> {
-          char response = (char) ctx.buf.get(0);
+        ByteBuffer responseBuf = ByteBuffer.allocate(1);
+        CompletableFuture<Void> responseRead =
+            ctx.io.readFull(responseBuf, ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit);
+        return responseRead.thenCompose(___ -> {
+          char response = (char) responseBuf.get(0);
           if (response == 'N') {
             if (required) throw new DriverException.ServerSslNotSupported();
             log.log(Level.INFO, "{0} SSL not supported by server, continuing unencrypted", ctx);
@@ -282,6 +597,7 @@ public abstract class Connection implements AutoCloseable {
           if (response != 'S') throw new IllegalArgumentException("Unrecognized SSL response char: " + response);
           return ctx.config.sslWrapper.apply(ctx.io).thenApply(sslIo -> {
             ctx.io = sslIo;
+            ctx.readBufferSize = Math.max(ctx.readBufferSize, sslIo.minReadBufferSize());
             return null;
           });
         });
@@ -291,24 +607,23 @@ public abstract class Connection implements AutoCloseable {
     protected CompletableFuture<QueryReadyConnection.AutoCommit> doAuth() {
       log.log(Level.FINE, "{0} Authenticating", ctx);
       // Send startup message
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeLengthIntBegin().writeInt(ctx.config.protocolVersion).writeCString("user").
           writeCString(ctx.config.username);
       if (ctx.config.database != null) ctx.writeCString("database").writeCString(ctx.config.database);
       if (ctx.config.additionalStartupParams != null)
         ctx.config.additionalStartupParams.forEach((k, v) -> ctx.writeCString(k).writeCString(v));
       ctx.writeByte((byte) 0).writeLengthIntEnd();
-      ctx.buf.flip();
       return writeFrontendMessage().thenCompose(__ -> readAuthResponse());
     }
 
     protected CompletableFuture<QueryReadyConnection.AutoCommit> readAuthResponse() {
       return readNonGeneralBackendMessage().thenCompose(__ -> {
-        char typ = (char) ctx.buf.get();
+        char typ = (char) ctx.readBuf.get();
         if (typ != 'R') throw new IllegalArgumentException("Unrecognized auth response message: " + typ);
         // Skip the length, grab the auth type
-        ctx.buf.position(5);
-        int authType = ctx.buf.getInt();
+        ctx.readBuf.position(5);
+        int authType = ctx.readBuf.getInt();
         if (log.isLoggable(Level.FINE))
           log.log(Level.FINE, "{0} Got auth response of type {1}", new Object[] { ctx, authType });
         switch (authType) {
@@ -317,7 +632,7 @@ public abstract class Connection implements AutoCloseable {
           // AuthenticationCleartextPassword
           case 3: return sendClearTextPassword();
           // AuthenticationMD5Password
-          case 5: return sendMd5Password(ctx.buf.get(), ctx.buf.get(), ctx.buf.get(), ctx.buf.get());
+          case 5: return sendMd5Password(ctx.readBuf.get(), ctx.readBuf.get(), ctx.readBuf.get(), ctx.readBuf.get());
           // Other...
           default: throw new IllegalArgumentException("Unrecognized auth response type: " + authType);
         }
@@ -326,16 +641,15 @@ public abstract class Connection implements AutoCloseable {
 
     protected CompletableFuture<QueryReadyConnection.AutoCommit> sendClearTextPassword() {
       if (ctx.config.password == null) throw new IllegalStateException("Password requested, none provided");
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeByte((byte) 'p').writeLengthIntBegin().writeCString(ctx.config.password).writeLengthIntEnd();
-      ctx.buf.flip();
       return writeFrontendMessage().thenCompose(__ -> readAuthResponse());
     }
 
     protected CompletableFuture<QueryReadyConnection.AutoCommit> sendMd5Password(byte... salt) {
       if (ctx.config.password == null) throw new IllegalStateException("Password requested, none provided");
       // "md5" + md5(md5(password + username) + random-salt))
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeByte((byte) 'p').writeLengthIntBegin().
           writeByte((byte) 'm').writeByte((byte) 'd').writeByte((byte) '5');
       MessageDigest md5;
@@ -347,23 +661,22 @@ public abstract class Connection implements AutoCloseable {
               ctx.config.username.getBytes(StandardCharsets.UTF_8)),
           salt);
       ctx.writeBytes(hash).writeByte((byte) 0).writeLengthIntEnd();
-      ctx.buf.flip();
       return writeFrontendMessage().thenCompose(__ -> readAuthResponse());
     }
 
     protected CompletableFuture<QueryReadyConnection.AutoCommit> readPostAuthResponse() {
       return readNonGeneralBackendMessage().thenCompose(__ -> {
-        char typ = (char) ctx.buf.get();
+        char typ = (char) ctx.readBuf.get();
         switch (typ) {
           // BackendKeyData
           case 'K':
-            ctx.buf.position(5);
-            ctx.processId = ctx.buf.getInt();
-            ctx.secretKey = ctx.buf.getInt();
+            ctx.readBuf.position(5);
+            ctx.processId = ctx.readBuf.getInt();
+            ctx.secretKey = ctx.readBuf.getInt();
             return readPostAuthResponse();
           // ReadyForQuery
           case 'Z':
-            ctx.buf.position(5);
+            ctx.readBuf.position(5);
             updateReadyForQueryTransactionStatus();
             return CompletableFuture.completedFuture(new QueryReadyConnection.AutoCommit(ctx));
           // TODO: NegotiateProtocolVersion
@@ -379,10 +692,9 @@ public abstract class Connection implements AutoCloseable {
      */
     public CompletableFuture<Void> cancelOther(int processId, int secretKey) {
       // Send the cancel request and just close the connection
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeInt(16).writeInt(80877102).writeInt(processId).writeInt(secretKey);
-      ctx.buf.flip();
-      return writeFrontendMessage().whenComplete((__, ___) -> ctx.io.close());
+      return writeFrontendMessage().whenComplete((__, ___) -> ctx.io.close().thenRun(ctx::releaseBuffers));
     }
   }
 
@@ -403,6 +715,16 @@ public abstract class Connection implements AutoCloseable {
      */
     public @Nullable Integer getSecretKey() { return ctx.secretKey; }
 
+    /**
+     * Cancel whatever this connection is running using {@link Startup#cancelOther(int, int)} on a new connection made
+     * from the same config. Like that call, the result does not say whether anything was actually cancelled.
+     */
+    public CompletableFuture<Void> cancel() {
+      Integer processId = ctx.processId, secretKey = ctx.secretKey;
+      if (processId == null || secretKey == null) throw new IllegalStateException("Server sent no key to cancel with");
+      return init(ctx.config).thenCompose(conn -> conn.cancelOther(processId, secretKey));
+    }
+
     /**
      * Basically just a check for general messages. This is useful for waiting for next subscribable item like
      * notifications. The resulting future will be errored if timeout is reached or if a non-general message is
@@ -412,7 +734,7 @@ public abstract class Connection implements AutoCloseable {
       return readBackendMessage(timeout, timeoutUnit).thenCompose(__ -> {
         CompletableFuture<Void> generalHandled = handleGeneralResponse();
         if (generalHandled != null) return generalHandled;
-        throw new DriverException.NonGeneralMessageOnTick((char) ctx.buf.get(0));
+        throw new DriverException.NonGeneralMessageOnTick((char) ctx.readBuf.get(0));
       });
     }
 
@@ -1,15 +1,44 @@
 package pgnio;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.WritePendingException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -25,6 +54,18 @@ public interface ConnectionIo {
   /** Get the local port that is being used to connect to the remote port or -1 if not connected */
   int getLocalPort();
 
+  /**
+   * Whether calls block the calling thread until done and return completed futures. Connections over a blocking IO
+   * never hand work off to another thread. Default is false.
+   */
+  default boolean isBlocking() { return false; }
+
+  /**
+   * The room a read buffer needs for {@link #readSome(ByteBuffer, long, TimeUnit)} to read into it without an extra
+   * copy. Connections never make their read buffer smaller than this. Default is 0.
+   */
+  default int minReadBufferSize() { return 0; }
+
   /**
    * Completely fill buf or time out. This is a shortcut for repeatedly calling
    * {@link #readSome(ByteBuffer, long, TimeUnit)} until full.
@@ -42,17 +83,45 @@ public interface ConnectionIo {
   /** Write all contents of buf or time out */
   CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit);
 
+  /**
+   * Write all contents of the buffers in order or time out. Implementations that support it do this as a gathering
+   * write so the buffers never need to be copied together. The default just writes each in turn.
+   */
+  default CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+    CompletableFuture<Void> ret = CompletableFuture.completedFuture(null);
+    for (ByteBuffer buf : bufs) ret = ret.thenCompose(__ -> writeFull(buf, timeout, timeoutUnit));
+    return ret;
+  }
+
   /** Implementation of {@link ConnectionIo} using {@link AsynchronousSocketChannel} */
   class AsyncSocketChannel implements ConnectionIo {
     private static final Logger log = Logger.getLogger(AsyncSocketChannel.class.getName());
 
-    /** Connect using the hostname and port in the config */
+    /**
+     * Connect using the hostname and port in the config, resolved and attempted via {@link Config#hostResolver}.
+     * {@link Config#unixSocketPath} is not supported.
+     */
     public static CompletableFuture<AsyncSocketChannel> connect(Config config) {
+      if (config.unixSocketPath != null) {
+        CompletableFuture<AsyncSocketChannel> ret = new CompletableFuture<>();
+        ret.completeExceptionally(new UnsupportedOperationException(
+            "Asynchronous socket channels can't use Unix domain sockets, use SelectorSocketChannel"));
+        return ret;
+      }
+      return config.hostResolver.connect(config, AsyncSocketChannel::connect);
+    }
+
+    /** Connect to the already-resolved address */
+    public static CompletableFuture<AsyncSocketChannel> connect(InetSocketAddress addr) {
       try {
         CompletableFuture<Void> ret = new CompletableFuture<>();
         AsynchronousSocketChannel ch = AsynchronousSocketChannel.open();
-        ch.connect(new InetSocketAddress(config.hostname, config.port), null, Util.handlerFromFuture(ret));
-        return ret.thenApply(__ -> new AsyncSocketChannel(ch));
+        ch.connect(addr, null, Util.handlerFromFuture(ret));
+        return ret.handle((__, ex) -> {
+          if (ex == null) return new AsyncSocketChannel(ch);
+          try { ch.close(); } catch (IOException e) { ex.addSuppressed(e); }
+          throw new CompletionException(ex);
+        });
       } catch (IOException e) { throw new RuntimeException(e); }
     }
 
@@ -129,12 +198,418 @@ public interface ConnectionIo {
       });
       return ret;
     }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (log.isLoggable(Level.FINEST)) log.log(Level.FINEST, "Writing {0} buffers", bufs.length);
+      ch.write(bufs, 0, bufs.length, timeout, timeoutUnit, bufs, new CompletionHandler<Long, ByteBuffer[]>() {
+        @Override
+        public void completed(Long result, ByteBuffer[] bufs) {
+          if (Util.hasRemaining(bufs)) ch.write(bufs, 0, bufs.length, timeout, timeoutUnit, bufs, this);
+          else ret.complete(null);
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer[] bufs) { ret.completeExceptionally(exc); }
+      });
+      return ret;
+    }
+  }
+
+  /**
+   * Implementation of {@link ConnectionIo} using a non-blocking {@link SocketChannel} on a {@link SelectorGroup} loop.
+   * All IO and completions for a connection happen on the loop thread it is pinned to.
+   */
+  class SelectorSocketChannel implements ConnectionIo {
+    private static final Logger log = Logger.getLogger(SelectorSocketChannel.class.getName());
+
+    /**
+     * Connect on the next loop of {@link Config#selectorGroup} or {@link SelectorGroup#getDefault()} if that is null.
+     * This uses the Unix domain socket in {@link Config#unixSocketPath} if set, otherwise the hostname and port
+     * resolved and attempted via {@link Config#hostResolver}.
+     */
+    public static CompletableFuture<SelectorSocketChannel> connect(Config config) {
+      SelectorGroup group = config.selectorGroup == null ? SelectorGroup.getDefault() : config.selectorGroup;
+      if (config.unixSocketPath == null) return config.hostResolver.connect(config, addr -> {
+        try {
+          return connect(new SelectorSocketChannel(SocketChannel.open(), group.nextLoop()), addr);
+        } catch (IOException e) { throw new RuntimeException(e); }
+      });
+      try {
+        SocketAddress addr = unixSocketAddress(Paths.get(config.unixSocketPath, ".s.PGSQL." + config.port).toString());
+        return connect(new SelectorSocketChannel(openUnixSocketChannel(), group.nextLoop()), addr);
+      } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    protected static CompletableFuture<SelectorSocketChannel> connect(SelectorSocketChannel io, SocketAddress addr) {
+      return io.connect(addr).handle((__, ex) -> {
+        if (ex == null) return io;
+        io.close();
+        throw new CompletionException(ex);
+      });
+    }
+
+    // Unix domain sockets are only in Java 16+, so they are accessed reflectively
+
+    protected static SocketChannel openUnixSocketChannel() throws IOException {
+      try {
+        ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+        return (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        throw new RuntimeException(e.getCause());
+      } catch (IllegalArgumentException | ReflectiveOperationException e) {
+        throw new UnsupportedOperationException("Unix domain sockets require Java 16 or newer", e);
+      }
+    }
+
+    protected static SocketAddress unixSocketAddress(String path) {
+      try {
+        return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").
+            getMethod("of", String.class).invoke(null, path);
+      } catch (InvocationTargetException e) {
+        throw new IllegalArgumentException("Invalid Unix domain socket path: " + path, e.getCause());
+      } catch (ReflectiveOperationException e) {
+        throw new UnsupportedOperationException("Unix domain sockets require Java 16 or newer", e);
+      }
+    }
+
+    protected final SocketChannel ch;
+    protected final SelectorGroup.Loop loop;
+    // All of the below are only accessed on the loop thread
+    protected @Nullable SelectionKey key;
+    protected @Nullable CompletableFuture<Void> pendingConnect;
+    protected @Nullable CompletableFuture<Void> pendingRead;
+    protected @Nullable ByteBuffer pendingReadBuf;
+    protected long pendingReadDeadline;
+    protected @Nullable CompletableFuture<Void> pendingWrite;
+    protected ByteBuffer @Nullable [] pendingWriteBufs;
+    protected long pendingWriteDeadline;
+
+    protected SelectorSocketChannel(SocketChannel ch, SelectorGroup.Loop loop) throws IOException {
+      this.ch = ch;
+      this.loop = loop;
+      ch.configureBlocking(false);
+    }
+
+    protected CompletableFuture<Void> connect(SocketAddress addr) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      loop.execute(() -> {
+        try {
+          key = ch.register(loop.selector, 0, this);
+          if (ch.connect(addr)) ret.complete(null);
+          else {
+            pendingConnect = ret;
+            updateInterest();
+          }
+        } catch (Exception e) { ret.completeExceptionally(e); }
+      });
+      return ret;
+    }
+
+    @Override
+    public boolean isOpen() { return ch.isOpen(); }
+
+    @Override
+    public CompletableFuture<Void> close() {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      loop.execute(() -> {
+        if (key != null) key.cancel();
+        try {
+          ch.close();
+          ret.complete(null);
+        } catch (IOException e) { ret.completeExceptionally(e); }
+        failPending(new ClosedChannelException());
+      });
+      return ret;
+    }
+
+    @Override
+    public int getLocalPort() {
+      try {
+        SocketAddress addr = ch.getLocalAddress();
+        if (addr instanceof InetSocketAddress) return ((InetSocketAddress) addr).getPort();
+      } catch (Exception e) {
+        // Ignore errors
+      }
+      return -1;
+    }
+
+    @Override
+    public CompletableFuture<Void> readSome(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (log.isLoggable(Level.FINEST)) log.log(Level.FINEST, "Reading bytes {0}", buf);
+      long deadline = timeout == 0 ? 0 : System.nanoTime() + timeoutUnit.toNanos(timeout);
+      loop.execute(() -> {
+        if (pendingRead != null) {
+          ret.completeExceptionally(new ReadPendingException());
+          return;
+        }
+        pendingRead = ret;
+        pendingReadBuf = buf;
+        pendingReadDeadline = deadline;
+        doRead();
+      });
+      return ret;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      if (log.isLoggable(Level.FINEST)) log.log(Level.FINEST, "Writing bytes {0}", buf);
+      return writeFull(new ByteBuffer[] { buf }, timeout, timeoutUnit);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      long deadline = timeout == 0 ? 0 : System.nanoTime() + timeoutUnit.toNanos(timeout);
+      loop.execute(() -> {
+        if (pendingWrite != null) {
+          ret.completeExceptionally(new WritePendingException());
+          return;
+        }
+        pendingWrite = ret;
+        pendingWriteBufs = bufs;
+        pendingWriteDeadline = deadline;
+        doWrite();
+      });
+      return ret;
+    }
+
+    /** Called on the loop thread when the selector says the given ops are ready */
+    protected void ready(int readyOps) {
+      if ((readyOps & SelectionKey.OP_CONNECT) != 0 && pendingConnect != null) {
+        CompletableFuture<Void> connect = pendingConnect;
+        pendingConnect = null;
+        try {
+          ch.finishConnect();
+          updateInterest();
+          connect.complete(null);
+        } catch (Exception e) { connect.completeExceptionally(e); }
+      }
+      if ((readyOps & SelectionKey.OP_READ) != 0) doRead();
+      if ((readyOps & SelectionKey.OP_WRITE) != 0) doWrite();
+    }
+
+    protected void doRead() {
+      CompletableFuture<Void> read = pendingRead;
+      ByteBuffer buf = pendingReadBuf;
+      if (read == null || buf == null) return;
+      try {
+        int amount = ch.read(buf);
+        if (amount == 0) {
+          updateInterest();
+          return;
+        }
+        pendingRead = null;
+        pendingReadBuf = null;
+        updateInterest();
+        if (amount == -1) read.completeExceptionally(new IllegalStateException("Channel closed"));
+        else read.complete(null);
+      } catch (Exception e) {
+        pendingRead = null;
+        pendingReadBuf = null;
+        read.completeExceptionally(e);
+      }
+    }
+
+    protected void doWrite() {
+      CompletableFuture<Void> write = pendingWrite;
+      ByteBuffer[] bufs = pendingWriteBufs;
+      if (write == null || bufs == null) return;
+      try {
+        while (Util.hasRemaining(bufs)) {
+          if (ch.write(bufs) == 0) {
+            updateInterest();
+            return;
+          }
+        }
+        pendingWrite = null;
+        pendingWriteBufs = null;
+        updateInterest();
+        write.complete(null);
+      } catch (Exception e) {
+        pendingWrite = null;
+        pendingWriteBufs = null;
+        write.completeExceptionally(e);
+      }
+    }
+
+    protected void updateInterest() {
+      if (key == null || !key.isValid()) return;
+      key.interestOps((pendingConnect == null ? 0 : SelectionKey.OP_CONNECT) |
+          (pendingRead == null ? 0 : SelectionKey.OP_READ) | (pendingWrite == null ? 0 : SelectionKey.OP_WRITE));
+    }
+
+    /** Fail pending reads and writes past their deadline and return the next deadline or max long if none */
+    protected long expire(long now) {
+      long next = Long.MAX_VALUE;
+      if (pendingRead != null && pendingReadDeadline != 0) {
+        if (pendingReadDeadline - now > 0) next = pendingReadDeadline;
+        else {
+          CompletableFuture<Void> read = pendingRead;
+          pendingRead = null;
+          pendingReadBuf = null;
+          updateInterest();
+          read.completeExceptionally(new InterruptedByTimeoutException());
+        }
+      }
+      if (pendingWrite != null && pendingWriteDeadline != 0) {
+        if (pendingWriteDeadline - now > 0) next = Math.min(next, pendingWriteDeadline);
+        else {
+          CompletableFuture<Void> write = pendingWrite;
+          pendingWrite = null;
+          pendingWriteBufs = null;
+          updateInterest();
+          write.completeExceptionally(new InterruptedByTimeoutException());
+        }
+      }
+      return next;
+    }
+
+    protected void failPending(Throwable ex) {
+      CompletableFuture<Void> connect = pendingConnect, read = pendingRead, write = pendingWrite;
+      pendingConnect = null;
+      pendingRead = null;
+      pendingReadBuf = null;
+      pendingWrite = null;
+      pendingWriteBufs = null;
+      if (connect != null) connect.completeExceptionally(ex);
+      if (read != null) read.completeExceptionally(ex);
+      if (write != null) write.completeExceptionally(ex);
+    }
   }
 
-  /** SSL wrapper for an underlying {@link ConnectionIo} */
+  /**
+   * Implementation of {@link ConnectionIo} using a blocking {@link Socket}. Every call blocks the calling thread and
+   * returns an already-completed future, so the futures chained on it run on that same thread. This is meant to be
+   * called from threads that are cheap to block such as virtual threads or with {@link SyncConnection}. Write timeouts
+   * are not supported, only read timeouts.
+   */
+  class BlockingSocket implements ConnectionIo {
+    private static final Logger log = Logger.getLogger(BlockingSocket.class.getName());
+
+    /**
+     * Connect using the hostname and port in the config, blocking the calling thread until connected. The hostname is
+     * resolved with {@link Config#hostResolver}, waiting for it here, and its addresses are tried one after another on
+     * this thread, each with the default timeout. {@link Config#unixSocketPath} is not supported.
+     */
+    public static CompletableFuture<BlockingSocket> connect(Config config) {
+      CompletableFuture<BlockingSocket> ret = new CompletableFuture<>();
+      if (config.unixSocketPath != null) {
+        ret.completeExceptionally(new UnsupportedOperationException("Blocking sockets can't use Unix domain sockets"));
+        return ret;
+      }
+      List<InetAddress> addresses;
+      try {
+        addresses = config.hostResolver.resolve(config.hostname).join();
+      } catch (CompletionException e) {
+        ret.completeExceptionally(e.getCause() == null ? e : e.getCause());
+        return ret;
+      }
+      IOException failure = null;
+      for (InetAddress address : addresses) {
+        Socket socket = new Socket();
+        try {
+          socket.connect(new InetSocketAddress(address, config.port),
+              (int) config.defaultTimeoutUnit.toMillis(config.defaultTimeout));
+          socket.setTcpNoDelay(true);
+          ret.complete(new BlockingSocket(socket));
+          return ret;
+        } catch (IOException e) {
+          try {
+            socket.close();
+          } catch (IOException closeEx) { e.addSuppressed(closeEx); }
+          if (failure == null) failure = e;
+          else failure.addSuppressed(e);
+        }
+      }
+      ret.completeExceptionally(failure == null ? new UnknownHostException(config.hostname) : failure);
+      return ret;
+    }
+
+    protected final Socket socket;
+    protected final ReadableByteChannel in;
+    protected final WritableByteChannel out;
+    protected int lastReadTimeoutMillis;
+
+    protected BlockingSocket(Socket socket) throws IOException {
+      this.socket = socket;
+      // These channels read and write through the socket streams so the socket read timeout is honored
+      in = Channels.newChannel(socket.getInputStream());
+      out = Channels.newChannel(socket.getOutputStream());
+    }
+
+    @Override
+    public boolean isOpen() { return !socket.isClosed(); }
+
+    @Override
+    public CompletableFuture<Void> close() {
+      try {
+        socket.close();
+        return CompletableFuture.completedFuture(null);
+      } catch (IOException e) {
+        CompletableFuture<Void> ret = new CompletableFuture<>();
+        ret.completeExceptionally(e);
+        return ret;
+      }
+    }
+
+    @Override
+    public int getLocalPort() { return socket.getLocalPort(); }
+
+    @Override
+    public boolean isBlocking() { return true; }
+
+    @Override
+    public CompletableFuture<Void> readSome(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (log.isLoggable(Level.FINEST)) log.log(Level.FINEST, "Reading bytes {0}", buf);
+      try {
+        int timeoutMillis = (int) timeoutUnit.toMillis(timeout);
+        if (timeoutMillis != lastReadTimeoutMillis) {
+          socket.setSoTimeout(timeoutMillis);
+          lastReadTimeoutMillis = timeoutMillis;
+        }
+        if (in.read(buf) == -1) ret.completeExceptionally(new IllegalStateException("Channel closed"));
+        else ret.complete(null);
+      } catch (SocketTimeoutException e) {
+        ret.completeExceptionally(new InterruptedByTimeoutException());
+      } catch (IOException e) {
+        ret.completeExceptionally(e);
+      }
+      return ret;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (log.isLoggable(Level.FINEST)) log.log(Level.FINEST, "Writing bytes {0}", buf);
+      try {
+        while (buf.hasRemaining()) out.write(buf);
+        ret.complete(null);
+      } catch (IOException e) {
+        ret.completeExceptionally(e);
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * SSL wrapper for an underlying {@link ConnectionIo}. Writes are wrapped into as many records as fit in the network
+   * buffer before each network write, and reads unwrap every complete record they have room for after each network
+   * read. When the caller's read buffer has room for a whole record, it is decrypted straight into it. A read and a
+   * write can be in progress at the same time, like in {@link QueryPipelineConnection}. Reads can wrap too, to answer
+   * the server during a handshake, so every wrap waits for the one before it. Renegotiation started by the server
+   * while reading and writing at once is not supported, which Postgres never does.
+   */
   class Ssl implements ConnectionIo {
     // XXX: This implementation has lots of help from, among others, https://github.com/jesperdj/sslclient
     protected static final Logger log = Logger.getLogger(Ssl.class.getName());
+    /** How many records' worth the network buffers and the app read buffer hold */
+    protected static final int RECORDS_PER_IO = 4;
+    protected static final ByteBuffer[] EMPTY_BUFS = new ByteBuffer[0];
 
     protected static ByteBuffer allocBuf(boolean directBuffer, int amount) {
       if (directBuffer) return ByteBuffer.allocateDirect(amount);
@@ -146,83 +621,144 @@ public interface ConnectionIo {
     protected final boolean directBuffer;
     protected final long defaultTimeout;
     protected final TimeUnit defaultTimeoutUnit;
+    /** Decrypted bytes not yet given to a reader, not flipped */
     protected ByteBuffer appReadBuf;
-    protected ByteBuffer appWriteBuf;
+    /** Encrypted bytes read but not yet unwrapped, not flipped */
     protected ByteBuffer netReadBuf;
+    /** Encrypted bytes wrapped but not yet written, not flipped */
     protected ByteBuffer netWriteBuf;
+    /** The last wrap started by {@link #wrapInTurn}. Only accessed while synchronized on this. */
+    protected CompletableFuture<Void> lastWrap = CompletableFuture.completedFuture(null);
+    protected final @Nullable SSLSessionContext sessionCache;
+    /** IDs of the sessions for the peer in {@link #sessionCache} when the handshake started */
+    protected List<byte[]> cachedSessionIds = Collections.emptyList();
 
     /** Create SSL wrapper with the given engine and config params */
     public Ssl(ConnectionIo underlying, SSLEngine sslEngine, boolean directBuffer,
         long defaultTimeout, TimeUnit defaultTimeoutUnit) {
+      this(underlying, sslEngine, null, directBuffer, defaultTimeout, defaultTimeoutUnit);
+    }
+
+    /**
+     * Create SSL wrapper with the given engine, the client session cache of the context that created it so
+     * {@link #isSessionResumed()} can be known, and config params
+     */
+    public Ssl(ConnectionIo underlying, SSLEngine sslEngine, @Nullable SSLSessionContext sessionCache,
+        boolean directBuffer, long defaultTimeout, TimeUnit defaultTimeoutUnit) {
       this.underlying = underlying;
       sslEngine.setUseClientMode(true);
       this.sslEngine = sslEngine;
+      this.sessionCache = sessionCache;
       this.directBuffer = directBuffer;
       this.defaultTimeout = defaultTimeout;
       this.defaultTimeoutUnit = defaultTimeoutUnit;
 
-      appReadBuf = allocBuf(directBuffer, sslEngine.getSession().getApplicationBufferSize());
-      appWriteBuf = allocBuf(directBuffer, sslEngine.getSession().getApplicationBufferSize());
-      netReadBuf = allocBuf(directBuffer, sslEngine.getSession().getPacketBufferSize());
-      netWriteBuf = allocBuf(directBuffer, sslEngine.getSession().getPacketBufferSize());
+      appReadBuf = allocBuf(directBuffer, sslEngine.getSession().getApplicationBufferSize() * RECORDS_PER_IO);
+      netReadBuf = allocBuf(directBuffer, sslEngine.getSession().getPacketBufferSize() * RECORDS_PER_IO);
+      netWriteBuf = allocBuf(directBuffer, sslEngine.getSession().getPacketBufferSize() * RECORDS_PER_IO);
     }
 
     @Override
     public boolean isOpen() { return underlying.isOpen(); }
 
     @Override
-    public CompletableFuture<Void> close() {
+    public CompletableFuture<Void> close() { return close(false); }
+
+    protected CompletableFuture<Void> close(boolean inWrap) {
       sslEngine.closeOutbound();
-      return handshakeUpdate(defaultTimeout, defaultTimeoutUnit).thenCompose(__ -> underlying.close());
+      return handshakeUpdate(defaultTimeout, defaultTimeoutUnit, sslEngine.getHandshakeStatus(), inWrap).
+          thenCompose(__ -> underlying.close());
     }
 
     @Override
     public int getLocalPort() { return underlying.getLocalPort(); }
 
+    @Override
+    public boolean isBlocking() { return underlying.isBlocking(); }
+
+    /** Enough for a whole record to be decrypted straight into the read buffer */
+    @Override
+    public int minReadBufferSize() { return sslEngine.getSession().getApplicationBufferSize(); }
+
     /** Begin the handshake */
     public CompletableFuture<Void> start() {
       log.log(Level.FINER, "Starting SSL handshake");
+      if (sessionCache != null) {
+        // Any session the handshake ends up with that is already cached for the peer was resumed
+        List<byte[]> ids = new ArrayList<>();
+        for (byte[] id : Collections.list(sessionCache.getIds())) {
+          SSLSession session = sessionCache.getSession(id);
+          if (session != null && sslEngine.getPeerPort() == session.getPeerPort() &&
+              sslEngine.getPeerHost() != null && sslEngine.getPeerHost().equals(session.getPeerHost())) ids.add(id);
+        }
+        cachedSessionIds = ids;
+      }
       try {
         sslEngine.beginHandshake();
       } catch (SSLException e) { throw new RuntimeException(e); }
-      return handshakeUpdate(defaultTimeout, defaultTimeoutUnit);
+      return handshakeUpdate(defaultTimeout, defaultTimeoutUnit, sslEngine.getHandshakeStatus(), false);
+    }
+
+    /**
+     * Whether the handshake resumed a session cached from an earlier connection instead of doing a full one. This is
+     * only valid after {@link #start()} completes and is always false if this wasn't given the session cache. Sessions
+     * can only be resumed when the engine is created with the peer host and port.
+     */
+    public boolean isSessionResumed() {
+      byte[] id = sslEngine.getSession().getId();
+      for (byte[] cachedId : cachedSessionIds) if (Arrays.equals(id, cachedId)) return true;
+      return false;
     }
 
     @Override
     public CompletableFuture<Void> readSome(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
-      appReadBuf.flip();
       if (log.isLoggable(Level.FINEST))
         log.log(Level.FINEST, "Reading SSL into {0} from app buf {1}", new Object[] { buf, appReadBuf });
-      // If there is anything, we use it
-      if (appReadBuf.hasRemaining()) {
-        Integer prevLimit = null;
-        // If we can full up the buf, even better
-        if (appReadBuf.remaining() >= buf.remaining()) {
-          prevLimit = appReadBuf.limit();
-          appReadBuf.limit(appReadBuf.position() + buf.remaining());
-        }
+      // If there is anything already decrypted, we use it
+      if (appReadBuf.position() > 0) {
+        appReadBuf.flip();
+        int prevLimit = appReadBuf.limit();
+        if (appReadBuf.remaining() > buf.remaining()) appReadBuf.limit(appReadBuf.position() + buf.remaining());
         buf.put(appReadBuf);
-        if (prevLimit != null) appReadBuf.limit(prevLimit);
+        appReadBuf.limit(prevLimit);
         appReadBuf.compact();
         return CompletableFuture.completedFuture(null);
       }
-      // Otherwise, unwrap and try again
-      return unwrap(timeout, timeoutUnit).thenCompose(__ -> readSome(buf, timeout, timeoutUnit));
+      // Otherwise, unwrap straight into the given buf if a record fits or into the app buf if not and try again
+      int prevPosition = buf.position();
+      ByteBuffer dst = buf.remaining() >= sslEngine.getSession().getApplicationBufferSize() ? buf : appReadBuf;
+      return unwrap(dst, timeout, timeoutUnit, false).thenCompose(__ -> {
+        if (buf.position() > prevPosition) return CompletableFuture.completedFuture(null);
+        return readSome(buf, timeout, timeoutUnit);
+      });
     }
 
     @Override
     public CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
-      ensureRemaining(appWriteBuf, buf.remaining());
-      appWriteBuf.put(buf);
-      return wrap(timeout, timeoutUnit);
+      return wrapInTurn(new ByteBuffer[] { buf }, timeout, timeoutUnit);
     }
 
-    protected CompletableFuture<Void> handshakeUpdate(long timeout, TimeUnit timeoutUnit) {
-      return handshakeUpdate(timeout, timeoutUnit, sslEngine.getHandshakeStatus());
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+      return wrapInTurn(bufs, timeout, timeoutUnit);
     }
 
+    /**
+     * {@link #wrap} once the last wrap started here is done so the network write buffer is never used by two at once.
+     * Wraps done as part of another wrap, like during the handshake, must call {@link #wrap} directly instead.
+     */
+    protected CompletableFuture<Void> wrapInTurn(ByteBuffer[] srcs, long timeout, TimeUnit timeoutUnit) {
+      synchronized (this) {
+        CompletableFuture<Void> prev = lastWrap;
+        if (prev.isDone()) lastWrap = wrap(srcs, timeout, timeoutUnit);
+        else lastWrap = prev.handle((__, ___) -> null).thenCompose(__ -> wrap(srcs, timeout, timeoutUnit));
+        return lastWrap;
+      }
+    }
+
+    /** Continue the handshake if needed. If inWrap, this is part of a wrap and any wrap it needs is not waited for. */
     protected CompletableFuture<Void> handshakeUpdate(long timeout, TimeUnit timeoutUnit,
-        SSLEngineResult.HandshakeStatus handshakeStatus) {
+        SSLEngineResult.HandshakeStatus handshakeStatus, boolean inWrap) {
       log.log(Level.FINEST, "Handshake update for {0}", handshakeStatus);
       switch (handshakeStatus) {
         case NOT_HANDSHAKING:
@@ -232,9 +768,10 @@ public interface ConnectionIo {
             log.log(Level.FINE, "Handshake finished, protocol: {0}", sslEngine.getSession().getProtocol());
           return CompletableFuture.completedFuture(null);
         case NEED_WRAP:
-          return wrap(timeout, timeoutUnit);
+          if (inWrap) return wrap(EMPTY_BUFS, timeout, timeoutUnit);
+          return wrapInTurn(EMPTY_BUFS, timeout, timeoutUnit);
         case NEED_UNWRAP:
-          return unwrap(timeout, timeoutUnit);
+          return unwrap(appReadBuf, timeout, timeoutUnit, inWrap);
         case NEED_TASK:
           while (true) {
             Runnable task = sslEngine.getDelegatedTask();
@@ -242,7 +779,7 @@ public interface ConnectionIo {
             log.log(Level.FINEST, "Running task: {0}", task);
             task.run();
           }
-          return handshakeUpdate(timeout, timeoutUnit);
+          return handshakeUpdate(timeout, timeoutUnit, sslEngine.getHandshakeStatus(), inWrap);
         default:
           throw new IllegalStateException("Unknown status: " + handshakeStatus);
       }
@@ -254,45 +791,64 @@ public interface ConnectionIo {
       return allocBuf(directBuffer, buf.remaining() + needed).put(buf);
     }
 
-    protected CompletableFuture<Void> wrap(long timeout, TimeUnit timeoutUnit) {
-      appWriteBuf.flip();
-      if (log.isLoggable(Level.FINEST))
-        log.log(Level.FINEST, "Wrap from {0} into {1}", new Object[] { appWriteBuf, netWriteBuf });
+    /** Wrap all of the sources, writing to the network only when the network buffer is full or at the end */
+    protected CompletableFuture<Void> wrap(ByteBuffer[] srcs, long timeout, TimeUnit timeoutUnit) {
       SSLEngineResult result;
-      try {
-        result = sslEngine.wrap(appWriteBuf, netWriteBuf);
-      } catch (SSLException e) { throw new RuntimeException(e); }
-      appWriteBuf.compact();
-      if (log.isLoggable(Level.FINEST))
-        log.log(Level.FINEST, "Wrap result {0} after {1} into {2}", new Object[] { result, appWriteBuf, netWriteBuf });
+      while (true) {
+        if (log.isLoggable(Level.FINEST))
+          log.log(Level.FINEST, "Wrap {0} bytes into {1}", new Object[] { Util.remaining(srcs), netWriteBuf });
+        try {
+          result = sslEngine.wrap(srcs, netWriteBuf);
+        } catch (SSLException e) { throw new RuntimeException(e); }
+        if (log.isLoggable(Level.FINEST))
+          log.log(Level.FINEST, "Wrap result {0} with {1} bytes left into {2}",
+              new Object[] { result, Util.remaining(srcs), netWriteBuf });
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          // Write what we have to make room or grow if there is nothing to write
+          if (netWriteBuf.position() > 0)
+            return flushNetWriteBuf(timeout, timeoutUnit).thenCompose(__ -> wrap(srcs, timeout, timeoutUnit));
+          netWriteBuf = ensureRemaining(netWriteBuf, sslEngine.getSession().getPacketBufferSize());
+          continue;
+        }
+        // Keep wrapping while there is more app data or more handshake data
+        if (result.getStatus() != SSLEngineResult.Status.OK) break;
+        SSLEngineResult.HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+        if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) continue;
+        boolean handshaking = handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+            handshakeStatus != SSLEngineResult.HandshakeStatus.FINISHED;
+        if (handshaking || !Util.hasRemaining(srcs)) break;
+      }
+      SSLEngineResult finalResult = result;
       switch (result.getStatus()) {
         case OK:
           return flushNetWriteBuf(timeout, timeoutUnit).
-              thenCompose(__ -> handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus())).
+              thenCompose(__ -> handshakeUpdate(timeout, timeoutUnit, finalResult.getHandshakeStatus(), true)).
               thenCompose(__ -> {
-                // Wrap again if there's more
-                if (appWriteBuf.position() > 0) return wrap(timeout, timeoutUnit);
+                // Wrap again if a handshake interrupted us
+                if (Util.hasRemaining(srcs)) return wrap(srcs, timeout, timeoutUnit);
                 return CompletableFuture.completedFuture(null);
               });
         case CLOSED:
           return flushNetWriteBuf(timeout, timeoutUnit).
-              thenCompose(__ -> handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus())).
-              thenCompose(__ -> close());
-        case BUFFER_OVERFLOW:
-          netWriteBuf = ensureRemaining(netWriteBuf, sslEngine.getSession().getPacketBufferSize());
-          return wrap(timeout, timeoutUnit);
+              thenCompose(__ -> handshakeUpdate(timeout, timeoutUnit, finalResult.getHandshakeStatus(), true)).
+              thenCompose(__ -> close(true));
         default:
           throw new IllegalStateException("Unknown status: " + result.getStatus());
       }
     }
 
     protected CompletableFuture<Void> flushNetWriteBuf(long timeout, TimeUnit timeoutUnit) {
+      if (netWriteBuf.position() == 0) return CompletableFuture.completedFuture(null);
       netWriteBuf.flip();
       log.log(Level.FINEST, "Flushing {0}", netWriteBuf);
       return underlying.writeFull(netWriteBuf, timeout, timeoutUnit).thenRun(netWriteBuf::clear);
     }
 
-    protected CompletableFuture<Void> unwrap(long timeout, TimeUnit timeoutUnit) {
+    /**
+     * Unwrap every complete record in the network buffer that the destination has room for, reading from the network
+     * first if the network buffer is empty. See {@link #handshakeUpdate} for inWrap.
+     */
+    protected CompletableFuture<Void> unwrap(ByteBuffer dst, long timeout, TimeUnit timeoutUnit, boolean inWrap) {
       log.log(Level.FINEST, "Unwrap begin on {0}", netReadBuf);
       // If net buf is empty, do read first
       CompletableFuture<Void> readComplete;
@@ -300,34 +856,225 @@ public interface ConnectionIo {
       else readComplete = CompletableFuture.completedFuture(null);
       return readComplete.thenCompose(__ -> {
         netReadBuf.flip();
-        if (log.isLoggable(Level.FINEST))
-          log.log(Level.FINEST, "Unwrap from {0} into {1}", new Object[] { netReadBuf, appReadBuf });
+        int appBufferSize = sslEngine.getSession().getApplicationBufferSize();
+        int prevDstPosition = dst.position();
         SSLEngineResult result;
-        try {
-          result = sslEngine.unwrap(netReadBuf, appReadBuf);
-        } catch (SSLException e) { throw new RuntimeException(e); }
-        if (log.isLoggable(Level.FINEST))
-          log.log(Level.FINEST, "Unwrap result {0} after {1} into {2}",
-              new Object[] { result, netReadBuf, appReadBuf });
+        while (true) {
+          if (log.isLoggable(Level.FINEST))
+            log.log(Level.FINEST, "Unwrap from {0} into {1}", new Object[] { netReadBuf, dst });
+          try {
+            result = sslEngine.unwrap(netReadBuf, dst);
+          } catch (SSLException e) { throw new RuntimeException(e); }
+          if (log.isLoggable(Level.FINEST))
+            log.log(Level.FINEST, "Unwrap result {0} after {1} into {2}", new Object[] { result, netReadBuf, dst });
+          // Keep going only for app data while there's more and room for it
+          if (result.getStatus() != SSLEngineResult.Status.OK ||
+              result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING ||
+              !netReadBuf.hasRemaining() || dst.remaining() < appBufferSize) break;
+        }
         netReadBuf.compact();
+        boolean produced = dst.position() > prevDstPosition;
         switch (result.getStatus()) {
           case OK:
-            return handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus());
+            return handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus(), inWrap);
           case CLOSED:
-            return handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus()).thenCompose(___ -> close());
+            return handshakeUpdate(timeout, timeoutUnit, result.getHandshakeStatus(), inWrap).
+                thenCompose(___ -> close(inWrap));
           case BUFFER_UNDERFLOW:
-            // Increase net buf size and retry
+            // Partial record left, fine if we got some data, otherwise read more (growing if full) and retry
+            if (produced) return CompletableFuture.completedFuture(null);
             netReadBuf = ensureRemaining(netReadBuf, sslEngine.getSession().getPacketBufferSize());
             return underlying.readSome(netReadBuf, timeout, timeoutUnit).
-                thenCompose(___ -> unwrap(timeout, timeoutUnit));
+                thenCompose(___ -> unwrap(dst, timeout, timeoutUnit, inWrap));
           case BUFFER_OVERFLOW:
-            // Increase temp buf and try again
-            appReadBuf = ensureRemaining(appReadBuf, sslEngine.getSession().getApplicationBufferSize());
-            return unwrap(timeout, timeoutUnit);
+            // Fine if we got some data, otherwise unwrap into the app buf, growing it if that's the one too small
+            if (produced) return CompletableFuture.completedFuture(null);
+            if (dst != appReadBuf) return unwrap(appReadBuf, timeout, timeoutUnit, inWrap);
+            appReadBuf = ensureRemaining(appReadBuf, appBufferSize);
+            return unwrap(appReadBuf, timeout, timeoutUnit, inWrap);
           default:
             throw new IllegalStateException("Unknown status: " + result.getStatus());
         }
       });
     }
   }
+
+  /**
+   * Decorator that records every byte read and written through the underlying IO to an append-only capture file for
+   * {@link Replay}. After an 8 byte header, each chunk is a one byte kind ({@link #KIND_READ} or {@link #KIND_WRITE}),
+   * the nanoseconds since the recording started as a long, the length as an int, and then the bytes. To capture
+   * plaintext on SSL connections, wrap the IO given by the {@link Config#sslWrapper} instead of the socket. File writes
+   * are buffered and done on the IO completion thread, so this is for capturing workloads, not for normal use.
+   */
+  class Recording implements ConnectionIo {
+    private static final Logger log = Logger.getLogger(Recording.class.getName());
+    /** The header every capture file starts with */
+    public static final long MAGIC = 0x50474E494F434150L;
+    /** Chunk kind for bytes read from the server */
+    public static final byte KIND_READ = 0;
+    /** Chunk kind for bytes written to the server */
+    public static final byte KIND_WRITE = 1;
+
+    protected final ConnectionIo underlying;
+    protected final FileChannel file;
+    protected final ByteBuffer fileBuf = ByteBuffer.allocate(64 * 1024);
+    protected final long startNanos = System.nanoTime();
+
+    /** Record IO to the given file, replacing it if it exists */
+    public Recording(ConnectionIo underlying, Path file) throws IOException {
+      this.underlying = underlying;
+      this.file = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.WRITE);
+      fileBuf.putLong(MAGIC);
+    }
+
+    @Override
+    public boolean isOpen() { return underlying.isOpen(); }
+
+    @Override
+    public CompletableFuture<Void> close() {
+      return underlying.close().whenComplete((__, ex) -> {
+        synchronized (this) {
+          try {
+            flush();
+            file.close();
+          } catch (IOException e) { log.log(Level.WARNING, "Unable to close capture file", e); }
+        }
+      });
+    }
+
+    @Override
+    public int getLocalPort() { return underlying.getLocalPort(); }
+
+    @Override
+    public boolean isBlocking() { return underlying.isBlocking(); }
+
+    @Override
+    public int minReadBufferSize() { return underlying.minReadBufferSize(); }
+
+    @Override
+    public CompletableFuture<Void> readSome(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      int prevPosition = buf.position();
+      return underlying.readSome(buf, timeout, timeoutUnit).thenRun(() -> record(KIND_READ, buf, prevPosition));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      int prevPosition = buf.position();
+      return underlying.writeFull(buf, timeout, timeoutUnit).thenRun(() -> record(KIND_WRITE, buf, prevPosition));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+      int[] prevPositions = new int[bufs.length];
+      for (int i = 0; i < bufs.length; i++) prevPositions[i] = bufs[i].position();
+      return underlying.writeFull(bufs, timeout, timeoutUnit).thenRun(() -> {
+        for (int i = 0; i < bufs.length; i++) record(KIND_WRITE, bufs[i], prevPositions[i]);
+      });
+    }
+
+    /** Record the bytes of buf from the given position to its current one */
+    protected synchronized void record(byte kind, ByteBuffer buf, int fromPosition) {
+      ByteBuffer bytes = buf.duplicate();
+      bytes.limit(bytes.position()).position(fromPosition);
+      if (!bytes.hasRemaining()) return;
+      try {
+        if (fileBuf.remaining() < 13) flush();
+        fileBuf.put(kind).putLong(System.nanoTime() - startNanos).putInt(bytes.remaining());
+        if (bytes.remaining() > fileBuf.remaining()) {
+          flush();
+          while (bytes.hasRemaining()) file.write(bytes);
+        } else {
+          fileBuf.put(bytes);
+        }
+      } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    protected void flush() throws IOException {
+      fileBuf.flip();
+      while (fileBuf.hasRemaining()) file.write(fileBuf);
+      fileBuf.clear();
+    }
+  }
+
+  /**
+   * Implementation of {@link ConnectionIo} that plays back the reads of a {@link Recording} capture with no server,
+   * e.g. via an {@link Config#ioConnector} of {@code c -> CompletableFuture.completedFuture(new Replay(capture))} and
+   * SSL off. Reads complete immediately, regardless of the recorded timing, with at most the rest of the current
+   * recorded chunk. Writes are discarded. Since what is written isn't checked, the connection must make the same
+   * requests in the same order as the recorded one. Once the recorded reads run out, reads fail as if the server closed
+   * the connection.
+   */
+  class Replay implements ConnectionIo {
+    /** Memory map a capture file for use with any number of replays */
+    public static ByteBuffer map(Path file) throws IOException {
+      try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+        return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      }
+    }
+
+    protected final ByteBuffer capture;
+    protected int chunkRemaining;
+    protected volatile boolean open = true;
+
+    /** Replay the capture from its current position. It is not changed, so it can be shared across replays. */
+    public Replay(ByteBuffer capture) {
+      this.capture = capture.duplicate();
+      if (this.capture.remaining() < 8 || this.capture.getLong() != Recording.MAGIC)
+        throw new IllegalArgumentException("Not a capture");
+    }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public CompletableFuture<Void> close() {
+      open = false;
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public int getLocalPort() { return -1; }
+
+    @Override
+    public synchronized CompletableFuture<Void> readSome(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      CompletableFuture<Void> ret = new CompletableFuture<>();
+      if (!open) {
+        ret.completeExceptionally(new ClosedChannelException());
+        return ret;
+      }
+      // Skip to the next read chunk
+      while (chunkRemaining == 0) {
+        if (capture.remaining() < 13) {
+          ret.completeExceptionally(new IllegalStateException("Channel closed"));
+          return ret;
+        }
+        byte kind = capture.get();
+        capture.getLong();
+        int length = capture.getInt();
+        if (kind == Recording.KIND_READ) chunkRemaining = length;
+        else capture.position(capture.position() + length);
+      }
+      int amount = Math.min(chunkRemaining, buf.remaining());
+      int prevLimit = capture.limit();
+      capture.limit(capture.position() + amount);
+      buf.put(capture);
+      capture.limit(prevLimit);
+      chunkRemaining -= amount;
+      ret.complete(null);
+      return ret;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer buf, long timeout, TimeUnit timeoutUnit) {
+      buf.position(buf.limit());
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeFull(ByteBuffer[] bufs, long timeout, TimeUnit timeoutUnit) {
+      for (ByteBuffer buf : bufs) buf.position(buf.limit());
+      return CompletableFuture.completedFuture(null);
+    }
+  }
 }
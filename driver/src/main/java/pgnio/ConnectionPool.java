@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,6 +30,11 @@ public class ConnectionPool implements AutoCloseable {
    * 0, borrowing will wait for next queue value.
    */
   protected final AtomicInteger remainingNewConnectionsOnBorrow = new AtomicInteger();
+  protected final AtomicLong fullSslHandshakes = new AtomicLong();
+  protected final AtomicLong resumedSslHandshakes = new AtomicLong();
+  protected @Nullable ConnectionPool readOnlyPool;
+  /** The config of the host the last new connection went to if {@link Config#hosts} is set */
+  protected volatile @Nullable Config lastHostConfig;
 
   /** Create a connection pool for the given connection with a fixed size of {@link Config#poolSize} */
   @SuppressWarnings("initialization")
@@ -38,9 +44,16 @@ public class ConnectionPool implements AutoCloseable {
     // If we are eagerly loading, create all of the connections now
     if (config.poolConnectEagerly) {
       log.log(Level.FINE, "Creating {0} pool connections eagerly", config.poolSize);
+      CompletableFuture<QueryReadyConnection.AutoCommit> first = null;
       for (int i = 0; i < config.poolSize; i++) {
+        CompletableFuture<QueryReadyConnection.AutoCommit> conn;
+        // With SSL, the rest wait on the first so they can resume its session instead of all doing full handshakes
+        if (first == null) first = conn = newConnection();
+        else if (config.ssl == null || config.ssl)
+          conn = first.handle((__, ___) -> newConnection()).thenCompose(Function.identity());
+        else conn = newConnection();
         try {
-          connections.put(newConnection());
+          connections.put(conn);
         } catch (InterruptedException e) { throw new RuntimeException(e); }
       }
     } else {
@@ -118,9 +131,47 @@ public class ConnectionPool implements AutoCloseable {
   }
 
   protected CompletableFuture<QueryReadyConnection.AutoCommit> newConnection() {
-    return config.connector.apply(config);
+    return connect().whenComplete((conn, __) -> {
+      // A fallback is not remembered since trying it alone next time would fail the match and connect to all again
+      if (conn != null && config.hosts != null && !config.hosts.isEmpty())
+        lastHostConfig = conn.ctx.targetSessionAttrsUnmatched ? null : conn.ctx.config;
+      if (conn != null && conn.ctx.io instanceof ConnectionIo.Ssl) {
+        if (((ConnectionIo.Ssl) conn.ctx.io).isSessionResumed()) resumedSslHandshakes.incrementAndGet();
+        else fullSslHandshakes.incrementAndGet();
+      }
+    });
   }
 
+  /**
+   * Connect with {@link Config#connector}. With {@link Config#hosts}, the host the last connection went to is tried
+   * alone first and kept if it still matches {@link Config#targetSessionAttrs}, so all of the hosts are only connected
+   * to when that fails. A host only used as a fallback for {@link Config.TargetSessionAttrs#PREFER_STANDBY} is not
+   * tried alone.
+   */
+  protected CompletableFuture<QueryReadyConnection.AutoCommit> connect() {
+    Config lastHost = lastHostConfig;
+    if (lastHost == null) return config.connector.apply(config);
+    return Connection.withHostConnectTimeout(lastHost, lastHost.connector.apply(lastHost).thenCompose(conn ->
+        conn.matchesTargetSessionAttrs(config.targetSessionAttrs).handle((matches, ex) -> {
+          if (ex == null && matches) return CompletableFuture.completedFuture(conn);
+          return conn.terminate().handle((__, ___) -> (QueryReadyConnection.@Nullable AutoCommit) null);
+        }).thenCompose(Function.identity())
+    )).handle((conn, ex) -> {
+      if (conn != null) return CompletableFuture.completedFuture(conn);
+      log.log(Level.FINE, "Last host no longer usable, connecting to all hosts", ex);
+      return config.connector.apply(config);
+    }).thenCompose(Function.identity());
+  }
+
+  /** The number of connections created by this pool that did a full SSL handshake */
+  public long getFullSslHandshakes() { return fullSslHandshakes.get(); }
+
+  /**
+   * The number of connections created by this pool that resumed a previous SSL session instead of a full handshake.
+   * Note, Postgres itself does not allow resumption, so this only happens with proxies in front of it that do.
+   */
+  public long getResumedSslHandshakes() { return resumedSslHandshakes.get(); }
+
   /**
    * Return a connection to the pool. If the given connection is null or not open, a new connection is added to the pool
    * instead. This should never block so long as {@link #borrowConnection()} was previously called. For simplicity,
@@ -193,13 +244,35 @@ public class ConnectionPool implements AutoCloseable {
         });
   }
 
+  /**
+   * The pool to borrow connections for read-only work from. If {@link Config#hosts} is set, this is a second pool of
+   * the same size, created on first use, that connects with {@link Config.TargetSessionAttrs#PREFER_STANDBY} so the
+   * work goes to standbys when there are any. This pool should then usually use
+   * {@link Config.TargetSessionAttrs#READ_WRITE}. Otherwise, it is just this pool. It is terminated with this pool.
+   */
+  public synchronized ConnectionPool readOnlyPool() {
+    if (config.hosts == null || config.hosts.isEmpty()) return this;
+    if (readOnlyPool == null)
+      readOnlyPool = new ConnectionPool(config.copy().targetSessionAttrs(Config.TargetSessionAttrs.PREFER_STANDBY));
+    return readOnlyPool;
+  }
+
+  /** {@link #withConnection(Function)} on {@link #readOnlyPool()} */
+  public <T> CompletableFuture<T> withReadOnlyConnection(
+      Function<QueryReadyConnection.AutoCommit, CompletableFuture<T>> fn) {
+    return readOnlyPool().withConnection(fn);
+  }
+
   /** Empty the pool, mark it closed, and terminate all connections being held */
   public CompletableFuture<Void> terminateAll() {
     closed = true;
     List<CompletableFuture<QueryReadyConnection.AutoCommit>> futs = new ArrayList<>();
     connections.drainTo(futs);
-    CompletableFuture[] closedFuts = new CompletableFuture[futs.size()];
-    for (int i = 0; i < closedFuts.length; i++) closedFuts[i] = futs.get(i).thenCompose(Connection::terminate);
+    CompletableFuture[] closedFuts = new CompletableFuture[futs.size() + 1];
+    for (int i = 0; i < futs.size(); i++) closedFuts[i] = futs.get(i).thenCompose(Connection::terminate);
+    ConnectionPool readOnly;
+    synchronized (this) { readOnly = readOnlyPool; }
+    closedFuts[futs.size()] = readOnly == null ? CompletableFuture.completedFuture(null) : readOnly.terminateAll();
     return CompletableFuture.allOf(closedFuts);
   }
 
@@ -162,7 +162,11 @@ public interface Converters {
 
     static {
       Map<String, Converters.From> from = new HashMap<>();
-      from.put(byte[].class.getName(), convertTextFromItem((byte[] v) -> "\\x" + Util.bytesToHex(v)));
+      // Binary format bytea is just the bytes which lets large values be written from the array itself
+      from.put(byte[].class.getName(), typedFrom((Converters.From<byte[]>) (textFormat, v, buf) -> {
+        if (textFormat) buf.writeString("\\x" + Util.bytesToHex(v));
+        else buf.writeBytes(v);
+      }));
       from.put(BigDecimal.class.getName(), convertTextFromItem(Object::toString));
       from.put(BigInteger.class.getName(), convertTextFromItem(Object::toString));
       from.put(Boolean.class.getName(), convertTextFromItem(Object::toString));
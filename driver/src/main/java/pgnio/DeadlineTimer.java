@@ -0,0 +1,136 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Hashed wheel timer for deadlines that are usually cancelled before they expire. Scheduling and cancelling are cheap
+ * and lock free, and a single daemon thread, started on first use, advances the wheel each tick and runs expired tasks.
+ * Tasks run on that thread so they should be quick and hand off anything slow. Expiry is only accurate to the tick.
+ * This is thread safe.
+ */
+public class DeadlineTimer {
+  protected static @Nullable DeadlineTimer defaultTimer;
+
+  /** The shared timer with a 10ms tick and 512 buckets, created on first use */
+  public static synchronized DeadlineTimer getDefault() {
+    if (defaultTimer == null) defaultTimer = new DeadlineTimer(10, TimeUnit.MILLISECONDS, 512);
+    return defaultTimer;
+  }
+
+  /** The length of a tick in nanoseconds */
+  public final long tickNanos;
+  /** The number of buckets in the wheel, a power of two */
+  public final int wheelSize;
+
+  protected final List<List<Timeout>> wheel;
+  protected final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  protected final long startNanos = System.nanoTime();
+  protected @Nullable Thread worker;
+  protected long currentTick;
+
+  /** Create timer with the given tick length and number of buckets which must be a power of two */
+  public DeadlineTimer(long tickDuration, TimeUnit tickUnit, int wheelSize) {
+    if (Integer.bitCount(wheelSize) != 1) throw new IllegalArgumentException("Wheel size must be a power of two");
+    tickNanos = Math.max(1, tickUnit.toNanos(tickDuration));
+    this.wheelSize = wheelSize;
+    wheel = new ArrayList<>(wheelSize);
+    for (int i = 0; i < wheelSize; i++) wheel.add(new ArrayList<>());
+  }
+
+  /** Run the task once the delay has passed unless the returned timeout is cancelled first */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    Timeout ret = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+    pending.add(ret);
+    startWorkerIfNeeded();
+    return ret;
+  }
+
+  protected synchronized void startWorkerIfNeeded() {
+    if (worker != null) return;
+    Thread thread = new Thread(this::run, "pgnio-deadline-timer");
+    thread.setDaemon(true);
+    thread.start();
+    worker = thread;
+  }
+
+  protected void run() {
+    while (true) {
+      long sleepNanos = (currentTick + 1) * tickNanos - (System.nanoTime() - startNanos);
+      if (sleepNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          Connection.log.log(Level.WARNING, "Deadline timer interrupted, stopping", e);
+          return;
+        }
+      }
+      currentTick++;
+      moveToBuckets();
+      expireBucket();
+    }
+  }
+
+  protected void moveToBuckets() {
+    Timeout timeout;
+    while ((timeout = pending.poll()) != null) {
+      if (timeout.state.get() != Timeout.PENDING) continue;
+      // Round up so a timeout never fires early, and anything already due goes in the current bucket
+      long tick = Math.max(currentTick, (timeout.deadlineNanos + tickNanos - 1) / tickNanos);
+      timeout.remainingRounds = (tick - currentTick) / wheelSize;
+      wheel.get((int) (tick & (wheelSize - 1))).add(timeout);
+    }
+  }
+
+  protected void expireBucket() {
+    Iterator<Timeout> iter = wheel.get((int) (currentTick & (wheelSize - 1))).iterator();
+    while (iter.hasNext()) {
+      Timeout timeout = iter.next();
+      if (timeout.state.get() == Timeout.CANCELLED) {
+        iter.remove();
+      } else if (timeout.remainingRounds > 0) {
+        timeout.remainingRounds--;
+      } else {
+        iter.remove();
+        if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+          try {
+            timeout.task.run();
+          } catch (Throwable e) {
+            Connection.log.log(Level.WARNING, "Deadline task failed", e);
+          }
+        }
+      }
+    }
+  }
+
+  /** A scheduled task */
+  public static class Timeout {
+    protected static final int PENDING = 0;
+    protected static final int CANCELLED = 1;
+    protected static final int EXPIRED = 2;
+
+    protected final Runnable task;
+    protected final long deadlineNanos;
+    protected final AtomicInteger state = new AtomicInteger(PENDING);
+    protected long remainingRounds;
+
+    protected Timeout(Runnable task, long deadlineNanos) {
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    /** Stop the task from running. Returns false if it has already expired or been cancelled. */
+    public boolean cancel() { return state.compareAndSet(PENDING, CANCELLED); }
+
+    /** Whether the deadline has been reached and the task run or started */
+    public boolean isExpired() { return state.get() == EXPIRED; }
+  }
+}
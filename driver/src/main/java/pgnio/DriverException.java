@@ -1,5 +1,7 @@
 package pgnio;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import java.util.concurrent.TimeUnit;
 
 /** Base exception for common driver exceptions */
@@ -71,4 +73,28 @@ public abstract class DriverException extends RuntimeException {
       this.notice = notice;
     }
   }
+
+  /** Thrown when a deadline from {@link QueryReadyConnection#withDeadline} is reached and the queries are cancelled */
+  public static class DeadlineExceeded extends DriverException {
+    public DeadlineExceeded(long timeout, TimeUnit timeoutUnit, @Nullable Throwable cause) {
+      super("Deadline of " + timeout + " " + timeoutUnit.toString().toLowerCase() + " exceeded, queries cancelled",
+          cause);
+    }
+  }
+
+  /** Thrown when one of the {@link Config#hosts} isn't connected to within {@link Config#hostConnectTimeout} */
+  public static class HostConnectTimeout extends DriverException {
+    public HostConnectTimeout(String hostname, int port, long timeout, TimeUnit timeoutUnit) {
+      super("Connecting to " + hostname + ":" + port + " took longer than " + timeout + " " +
+          timeoutUnit.toString().toLowerCase());
+    }
+  }
+
+  /**
+   * Thrown when none of the {@link Config#hosts} could be connected to with a matching
+   * {@link Config#targetSessionAttrs}. Failures connecting to each host are added as suppressed exceptions.
+   */
+  public static class NoMatchingHost extends DriverException {
+    public NoMatchingHost(Config.TargetSessionAttrs attrs) { super("No host matched target session attrs " + attrs); }
+  }
 }
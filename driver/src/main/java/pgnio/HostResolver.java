@@ -0,0 +1,201 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Resolves hostnames off the calling thread, caches the addresses for a while, and connects to them Happy Eyeballs
+ * style. Lookups run on the executor and concurrent lookups of the same hostname share one. Connecting starts with the
+ * first address, alternating between IPv6 and IPv4, and starts the next one whenever an attempt fails or hasn't
+ * succeeded within the attempt delay. The first to connect wins and the others are closed. This is thread safe.
+ */
+public class HostResolver {
+  protected static @Nullable HostResolver defaultResolver;
+
+  /**
+   * The shared resolver with up to 4 lookup threads, a 30 second cache, and a 250 millisecond attempt delay, created on
+   * first use
+   */
+  public static synchronized HostResolver getDefault() {
+    if (defaultResolver == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          r -> {
+            Thread thread = new Thread(r, "pgnio-host-resolver");
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      defaultResolver = new HostResolver(executor, 30, TimeUnit.SECONDS, 250, TimeUnit.MILLISECONDS);
+    }
+    return defaultResolver;
+  }
+
+  /** Where the blocking lookups are run */
+  public final Executor executor;
+  /** How long resolved addresses are reused in nanoseconds. Failed lookups are not cached. */
+  public final long cacheTtlNanos;
+  /** How long to wait in nanoseconds for an attempt before also trying the next address */
+  public final long attemptDelayNanos;
+
+  protected final ConcurrentMap<String, Cached> cache = new ConcurrentHashMap<>();
+
+  /** Create resolver. See the fields for what each parameter means. */
+  public HostResolver(Executor executor, long cacheTtl, TimeUnit cacheTtlUnit, long attemptDelay,
+      TimeUnit attemptDelayUnit) {
+    this.executor = executor;
+    cacheTtlNanos = cacheTtlUnit.toNanos(cacheTtl);
+    attemptDelayNanos = attemptDelayUnit.toNanos(attemptDelay);
+  }
+
+  /** All addresses for the hostname, from the cache if they were resolved within the TTL */
+  public CompletableFuture<List<InetAddress>> resolve(String hostname) {
+    long now = System.nanoTime();
+    Cached[] started = new Cached[1];
+    Cached cached = cache.compute(hostname, (k, existing) -> {
+      if (existing != null && existing.isValid(now)) return existing;
+      return started[0] = new Cached();
+    });
+    Cached lookup = started[0];
+    if (lookup != null) {
+      Connection.log.log(Level.FINE, "Resolving {0}", hostname);
+      try {
+        executor.execute(() -> {
+          try {
+            InetAddress[] addresses = InetAddress.getAllByName(hostname);
+            lookup.expiresAt = System.nanoTime() + cacheTtlNanos;
+            lookup.addresses.complete(Collections.unmodifiableList(Arrays.asList(addresses)));
+          } catch (Throwable e) {
+            cache.remove(hostname, lookup);
+            lookup.addresses.completeExceptionally(e);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        cache.remove(hostname, lookup);
+        lookup.addresses.completeExceptionally(e);
+      }
+    }
+    // Callers can't complete the cached one
+    return cached.addresses.thenApply(Function.identity());
+  }
+
+  /** Remove the hostname from the cache or clear the whole cache if the hostname is null */
+  public void invalidate(@Nullable String hostname) {
+    if (hostname == null) cache.clear();
+    else cache.remove(hostname);
+  }
+
+  /**
+   * Resolve {@link Config#hostname} and make connection attempts to its addresses on {@link Config#port} with the
+   * given function as described on this class. The {@link Config#deadlineTimer} is used for the attempt delay.
+   */
+  public <T extends ConnectionIo> CompletableFuture<T> connect(Config config,
+      Function<InetSocketAddress, CompletableFuture<T>> attempt) {
+    return resolve(config.hostname).thenCompose(addresses ->
+        new Attempts<>(interleave(addresses), config.port, config.deadlineTimer, attempt).start());
+  }
+
+  /** Order the addresses alternating between IPv6 and IPv4, starting with the family of the first one */
+  protected List<InetAddress> interleave(List<InetAddress> addresses) {
+    if (addresses.isEmpty()) return addresses;
+    List<InetAddress> first = new ArrayList<>(), second = new ArrayList<>();
+    boolean firstIsV6 = addresses.get(0) instanceof Inet6Address;
+    for (InetAddress address : addresses) (address instanceof Inet6Address == firstIsV6 ? first : second).add(address);
+    List<InetAddress> ret = new ArrayList<>(addresses.size());
+    for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+      if (i < first.size()) ret.add(first.get(i));
+      if (i < second.size()) ret.add(second.get(i));
+    }
+    return ret;
+  }
+
+  protected static class Cached {
+    protected final CompletableFuture<List<InetAddress>> addresses = new CompletableFuture<>();
+    protected volatile long expiresAt;
+
+    protected boolean isValid(long now) {
+      if (!addresses.isDone()) return true;
+      return !addresses.isCompletedExceptionally() && expiresAt - now > 0;
+    }
+  }
+
+  /** The state of connecting to one of a set of addresses */
+  protected class Attempts<T extends ConnectionIo> {
+    protected final List<InetAddress> addresses;
+    protected final int port;
+    protected final DeadlineTimer timer;
+    protected final Function<InetSocketAddress, CompletableFuture<T>> attempt;
+    protected final CompletableFuture<T> ret = new CompletableFuture<>();
+    // All of the below are only accessed while synchronized on this
+    protected int nextIndex;
+    protected int failed;
+    protected DeadlineTimer.@Nullable Timeout nextAttemptTimeout;
+    protected @Nullable Throwable firstFailure;
+
+    protected Attempts(List<InetAddress> addresses, int port, DeadlineTimer timer,
+        Function<InetSocketAddress, CompletableFuture<T>> attempt) {
+      this.addresses = addresses;
+      this.port = port;
+      this.timer = timer;
+      this.attempt = attempt;
+    }
+
+    protected CompletableFuture<T> start() {
+      if (addresses.isEmpty()) ret.completeExceptionally(new IllegalStateException("No addresses to connect to"));
+      else startNext();
+      return ret;
+    }
+
+    protected void startNext() {
+      InetSocketAddress address;
+      synchronized (this) {
+        if (ret.isDone() || nextIndex >= addresses.size()) return;
+        address = new InetSocketAddress(addresses.get(nextIndex++), port);
+        if (nextAttemptTimeout != null) nextAttemptTimeout.cancel();
+        nextAttemptTimeout = nextIndex >= addresses.size() ? null :
+            timer.schedule(this::startNext, attemptDelayNanos, TimeUnit.NANOSECONDS);
+      }
+      Connection.log.log(Level.FINE, "Attempting connection to {0}", address);
+      CompletableFuture<T> fut;
+      try {
+        fut = attempt.apply(address);
+      } catch (Throwable e) {
+        fut = new CompletableFuture<>();
+        fut.completeExceptionally(e);
+      }
+      fut.whenComplete(this::attemptDone);
+    }
+
+    protected void attemptDone(@Nullable T io, @Nullable Throwable ex) {
+      if (io != null) {
+        if (ret.complete(io)) {
+          synchronized (this) {
+            if (nextAttemptTimeout != null) nextAttemptTimeout.cancel();
+          }
+        } else {
+          // Lost the race
+          io.close();
+        }
+        return;
+      }
+      boolean allFailed;
+      synchronized (this) {
+        failed++;
+        if (firstFailure == null) firstFailure = ex;
+        else if (ex != null && firstFailure != ex) firstFailure.addSuppressed(ex);
+        allFailed = failed == addresses.size();
+      }
+      if (allFailed) ret.completeExceptionally(firstFailure);
+      else startNext();
+    }
+  }
+}
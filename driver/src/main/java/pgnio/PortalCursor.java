@@ -0,0 +1,153 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Auto-paging iterator over a bound portal, created with {@link QueryBuildConnection.Bound#cursor()}. Each page is an
+ * {@link QueryBuildConnection.Bound#execute(int)} and {@link QueryBuildConnection#flush()} for a number of rows sized
+ * from the previous page: its average wire size per row against {@link Config#cursorPageBytes}, and its time per row,
+ * both fetching it and from when it was given until the next page was asked for, against {@link Config#cursorPageTime}.
+ * The page size at most doubles from one page to the next. With {@link #prefetch}, the execute for the next page is
+ * sent as soon as a page has been read, so its rows arrive while the page is being consumed instead of costing a round
+ * trip when it is asked for. The next page is then sized with the consume time of the page before. Call
+ * {@link QueryBuildConnection.Bound#describe()} before creating the cursor for column names. Once done,
+ * {@link #done()} must be called to get back the previous connection state. Not thread safe.
+ */
+public class PortalCursor<T extends QueryReadyConnection<T>> {
+  protected final QueryBuildConnection.Bound<T> bound;
+  /** The bytes of rows to aim for per page */
+  public final long pageBytes;
+  /** The nanoseconds to aim for per page */
+  public final long pageNanos;
+  /** Whether the next page is executed before it is asked for */
+  public final boolean prefetch;
+  protected @Nullable CompletableFuture<QueryResultConnection<QueryBuildConnection.Bound<T>>> prefetched;
+  protected int nextPageRows;
+  protected boolean exhausted;
+  protected QueryMessage.@Nullable RowMeta lastRowMeta;
+  // Measurements of the last page
+  protected int lastRows;
+  protected long lastBytes;
+  protected long lastFetchNanos;
+  protected long lastConsumeNanos;
+  protected long lastGivenAt;
+
+  protected PortalCursor(QueryBuildConnection.Bound<T> bound, int initialPageRows, long pageBytes, long pageTime,
+      TimeUnit pageTimeUnit, boolean prefetch) {
+    if (initialPageRows <= 0) throw new IllegalArgumentException("Initial page rows must be positive");
+    this.bound = bound;
+    this.pageBytes = pageBytes;
+    pageNanos = pageTimeUnit.toNanos(pageTime);
+    this.prefetch = prefetch;
+    nextPageRows = initialPageRows;
+  }
+
+  /** The number of rows that will be asked for in the next page */
+  public int getNextPageRows() { return nextPageRows; }
+
+  /** True if the portal has no more rows */
+  public boolean isExhausted() { return exhausted; }
+
+  /** The next page of rows or null if there are no more */
+  public CompletableFuture<@Nullable List<QueryMessage.Row>> nextPage() {
+    if (exhausted) return CompletableFuture.completedFuture(null);
+    long start = System.nanoTime();
+    if (lastRows > 0) lastConsumeNanos = start - lastGivenAt;
+    CompletableFuture<QueryResultConnection<QueryBuildConnection.Bound<T>>> pending = prefetched;
+    prefetched = null;
+    if (pending == null) {
+      if (lastRows > 0) resize();
+      pending = execute(nextPageRows);
+    }
+    return pending.thenCompose(this::fetch).thenApply(page -> {
+      lastGivenAt = System.nanoTime();
+      lastFetchNanos = lastGivenAt - start;
+      if (prefetch && !exhausted) {
+        if (lastRows > 0) resize();
+        prefetched = execute(nextPageRows);
+      }
+      return page.isEmpty() && exhausted ? null : page;
+    });
+  }
+
+  /** Size the next page from the last one */
+  protected void resize() {
+    long rowBytes = Math.max(1, lastBytes / lastRows);
+    long rowNanos = Math.max(1, (lastFetchNanos + lastConsumeNanos) / lastRows);
+    long rows = Math.min(pageBytes / rowBytes, pageNanos / rowNanos);
+    // Only grow gradually so a single quick page doesn't overshoot
+    rows = Math.min(rows, nextPageRows * 2L);
+    nextPageRows = (int) Math.max(1, Math.min(rows, Integer.MAX_VALUE));
+  }
+
+  /** Send the execute for a page without reading its rows */
+  protected CompletableFuture<QueryResultConnection<QueryBuildConnection.Bound<T>>> execute(int rows) {
+    return bound.execute(rows).thenCompose(QueryBuildConnection::flush);
+  }
+
+  /** Read a page of rows from the result of {@link #execute(int)} */
+  protected CompletableFuture<List<QueryMessage.Row>> fetch(QueryResultConnection<QueryBuildConnection.Bound<T>> res) {
+    List<QueryMessage.Row> page = new ArrayList<>(Math.min(nextPageRows, 10000));
+    long[] bytes = new long[1];
+    // Each page is a new result, so carry the described row meta over
+    if (lastRowMeta != null) res.lastRowMeta = lastRowMeta;
+    return res.loopMessages(msg -> {
+      if (msg == null || msg.isQueryEndingMessage()) {
+        if (!(msg instanceof QueryMessage.PortalSuspended)) exhausted = true;
+        return Connection.LOOP_STOP;
+      }
+      if (msg instanceof QueryMessage.RowMeta) {
+        lastRowMeta = (QueryMessage.RowMeta) msg;
+      } else if (msg instanceof QueryMessage.Row) {
+        page.add((QueryMessage.Row) msg);
+        bytes[0] += res.ctx.readBuf.limit();
+      }
+      return Connection.LOOP_CONTINUE;
+    }).thenApply(__ -> {
+      lastRows = page.size();
+      lastBytes = bytes[0];
+      return page;
+    });
+  }
+
+  /** Synchronous form of {@link #forEachRowAsync(Function)} */
+  public CompletableFuture<Void> forEachRow(Consumer<QueryMessage.Row> fn) {
+    return forEachRowAsync(row -> {
+      fn.accept(row);
+      return Connection.LOOP_CONTINUE;
+    });
+  }
+
+  /** Call the function for every remaining row, page after page, not calling again until its future completes */
+  public CompletableFuture<Void> forEachRowAsync(Function<QueryMessage.Row, ? extends CompletableFuture<?>> fn) {
+    AtomicReference<Iterator<QueryMessage.Row>> rows = new AtomicReference<>(Collections.emptyIterator());
+    return bound.loop(() -> {
+      if (rows.get().hasNext()) return Connection.continueAfter(fn.apply(rows.get().next()));
+      return nextPage().thenApply(page -> {
+        if (page == null) return false;
+        rows.set(page.iterator());
+        return true;
+      });
+    });
+  }
+
+  /**
+   * Sync to end the portal, discarding any rows not yet fetched including a prefetched page, and return the previous
+   * connection state
+   */
+  public CompletableFuture<T> done() {
+    CompletableFuture<?> pending = prefetched == null ? CompletableFuture.completedFuture(null) : prefetched;
+    prefetched = null;
+    return pending.thenCompose(__ -> bound.done()).thenCompose(QueryResultConnection::done);
+  }
+}
@@ -16,9 +16,8 @@ public abstract class QueryBuildConnection
   }
 
   protected CompletableFuture<Void> sendFlush() {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'H').writeLengthIntBegin().writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage();
   }
 
@@ -34,31 +33,35 @@ public abstract class QueryBuildConnection
   }
 
   protected CompletableFuture<Void> sendClose(boolean portal, String name) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'C').writeLengthIntBegin().writeByte((byte) (portal ? 'P' : 'S')).
         writeCString(name).writeLengthIntEnd();
-    ctx.buf.flip();
-    return writeFrontendMessage();
+    return queueFrontendMessage();
   }
 
   protected CompletableFuture<Void> sendDescribe(boolean portal, String name) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'D').writeLengthIntBegin().writeByte((byte) (portal ? 'P' : 'S')).
         writeCString(name).writeLengthIntEnd();
-    ctx.buf.flip();
-    return writeFrontendMessage();
+    return queueFrontendMessage();
   }
 
   /** Describe either the statement or bound portal */
   public abstract CompletableFuture<SELF> describe();
 
   protected CompletableFuture<Void> sendSync() {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'S').writeLengthIntBegin().writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage();
   }
 
+  /** Same as {@link #sendSync()} but queued instead of written. Used by {@link QueryPipelineConnection}. */
+  protected CompletableFuture<Void> queueSync() {
+    beginFrontendMessage();
+    ctx.writeByte((byte) 'S').writeLengthIntBegin().writeLengthIntEnd();
+    return queueFrontendMessage();
+  }
+
   @Override
   protected CompletableFuture<QueryReadyConnection.AutoCommit> reset() {
     assertValid();
@@ -128,7 +131,7 @@ public abstract class QueryBuildConnection
 
     protected CompletableFuture<Void> sendBindWithConvertedParams(String portalName, boolean[] paramsTextFormat,
         boolean[] resultsTextFormat, Object... params) {
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeByte((byte) 'B').writeLengthIntBegin().writeCString(portalName).writeCString(statementName).
           writeShort((short) paramsTextFormat.length);
       for (boolean paramTextFormat : paramsTextFormat) ctx.writeShort((short) (paramTextFormat ? 0 : 1));
@@ -138,20 +141,21 @@ public abstract class QueryBuildConnection
           ctx.writeInt(-1);
         } else {
           // Skip the length and write it after conversion
-          ctx.buf.position(ctx.buf.position() + 4);
-          int prevPos = ctx.buf.position();
+          ctx.writeEnsureCapacity(4);
+          int lengthPos = ctx.buf.position();
+          ctx.buf.position(lengthPos + 4);
+          int prevPos = ctx.writePosition();
           boolean textFormat = paramsTextFormat.length == 0 ||
               (paramsTextFormat.length == 1 && paramsTextFormat[0]) ||
               (paramsTextFormat.length > i &&  paramsTextFormat[i]);
           ctx.config.paramWriter.write(textFormat, params[i], ctx);
-          ctx.buf.putInt(prevPos - 4, ctx.buf.position() - prevPos);
+          ctx.buf.putInt(lengthPos, ctx.writePosition() - prevPos);
         }
       }
       ctx.writeShort((short) resultsTextFormat.length);
       for (boolean resultTextFormat : resultsTextFormat) ctx.writeShort((short) (resultTextFormat ? 0 : 1));
       ctx.writeLengthIntEnd();
-      ctx.buf.flip();
-      return writeFrontendMessage();
+      return queueFrontendMessage();
     }
 
     /** {@link #bind(Object...)} + {@link Bound#executeAndDone()} */
@@ -198,10 +202,9 @@ public abstract class QueryBuildConnection
     }
 
     protected CompletableFuture<Void> sendExecute(int maxRows) {
-      ctx.buf.clear();
+      beginFrontendMessage();
       ctx.writeByte((byte) 'E').writeLengthIntBegin().writeCString(portalName).writeInt(maxRows).writeLengthIntEnd();
-      ctx.buf.flip();
-      return writeFrontendMessage();
+      return queueFrontendMessage();
     }
 
     /** Execute the bound statement */
@@ -251,6 +254,26 @@ public abstract class QueryBuildConnection
       return describe().thenCompose(Bound::executeAndDone);
     }
 
+    /**
+     * Cursor that pages through the rows of this portal, sizing each page with the {@link Config} cursor settings. See
+     * {@link PortalCursor}. This connection should not be used directly afterwards, use {@link PortalCursor#done()}
+     * instead. This defers to {@link #cursor(boolean)} with {@link Config#cursorPrefetch}.
+     */
+    public PortalCursor<T> cursor() { return cursor(ctx.config.cursorPrefetch); }
+
+    /** Same as {@link #cursor()} but with whether to execute each next page before it is asked for */
+    public PortalCursor<T> cursor(boolean prefetch) {
+      return new PortalCursor<>(this, ctx.config.cursorInitialPageRows, ctx.config.cursorPageBytes,
+          ctx.config.cursorPageTime, ctx.config.cursorPageTimeUnit, prefetch);
+    }
+
+    /**
+     * Publisher of the rows that executes this portal for at most maxFetchRows at a time as rows are requested. See
+     * {@link RowPublisher}. This connection should not be used directly afterwards, use {@link RowPublisher#done()}
+     * instead.
+     */
+    public RowPublisher<T> rowPublisher(int maxFetchRows) { return RowPublisher.of(this, maxFetchRows); }
+
     /** Close this bound portal. This does not need to be called for non-reusable (i.e. "unnamed") bound portals. */
     public CompletableFuture<Bound<T>> closePortal() { return sendClose(true, portalName).thenApply(__ -> this); }
   }
@@ -0,0 +1,202 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Connection state for sending many queries without waiting for the results of the ones before them. Each query is sent
+ * as its own parse, bind, describe, execute, and sync so a failure in one query only fails the future for that query.
+ * Inside a transaction though, a failed query fails the transaction and all queries after it will fail too.
+ * <p>
+ * Queries are queued in the write buffer and written once {@link Config#writeFlushThreshold} is reached or when
+ * {@link #flush()} or {@link #done()} is called. Results are read as soon as the queries are written and are handed to
+ * each query's handler in the order they were given, while more queries are being written. Over SSL, this relies on
+ * {@link ConnectionIo.Ssl} allowing a read and a write at once. Like other connection states, this is not thread safe.
+ */
+public class QueryPipelineConnection<T extends QueryReadyConnection<T>> extends Connection.Started {
+  protected final T prevConn;
+  /** Queries whose sync has been queued but not yet written */
+  protected final List<PendingQuery<?>> unwritten = new ArrayList<>();
+  /** Completes when the last queued write completes */
+  protected CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+  /** Completes when the last written query's results have been read */
+  protected CompletableFuture<Void> lastRead = CompletableFuture.completedFuture(null);
+  /** Set when reading fails in a way that leaves the connection unusable */
+  protected volatile @Nullable Throwable failure;
+  protected boolean ended;
+
+  protected QueryPipelineConnection(Context ctx, T prevConn) {
+    super(ctx);
+    this.prevConn = prevConn;
+    ctx.pipelining = true;
+  }
+
+  @Override
+  protected void assertValid() {
+    super.assertValid();
+    if (ended) throw new IllegalStateException("Pipeline already done");
+  }
+
+  /**
+   * Queue the query with the given params and have the handler read its results. The handler should only consume the
+   * results of this query (e.g. {@link QueryResultConnection#collectRows()}) and not call
+   * {@link QueryResultConnection#done()}, the rest of the results are consumed after the handler completes. The
+   * returned future completes with the handler's result once the results are consumed or fails if the query or the
+   * handler fails.
+   */
+  public <R> CompletableFuture<R> query(Function<QueryResultConnection<QueryPipelineConnection<T>>,
+      CompletableFuture<R>> handler, String query, Object... params) {
+    assertValid();
+    log.log(Level.FINE, "Pipelining query: {0}", query);
+    PendingQuery<R> pending = new PendingQuery<>(handler, query, params);
+    chainWrite(() -> sendPendingQuery(pending)).whenComplete((__, ex) -> {
+      if (ex != null) pending.result.completeExceptionally(ex);
+    });
+    return pending.result;
+  }
+
+  /** {@link #query(Function, String, Object...)} + {@link QueryResultConnection#collectRows()} */
+  public CompletableFuture<List<QueryMessage.Row>> queryRows(String query, Object... params) {
+    return query(QueryResultConnection::collectRows, query, params);
+  }
+
+  /** {@link #query(Function, String, Object...)} + {@link QueryResultConnection#collectRowCount()} */
+  @SuppressWarnings({"return.type.incompatible", "methodref.return.invalid"})
+  public CompletableFuture<@Nullable Long> queryRowCount(String query, Object... params) {
+    return query(QueryResultConnection::collectRowCount, query, params);
+  }
+
+  /** {@link #query(Function, String, Object...)} ignoring results */
+  public CompletableFuture<Void> queryExec(String query, Object... params) {
+    return query(__ -> CompletableFuture.completedFuture(null), query, params);
+  }
+
+  /** Write all queued queries now instead of waiting for the write buffer to fill */
+  public CompletableFuture<Void> flush() {
+    assertValid();
+    return chainWrite(() ->
+        written(ctx.queuedFrontendMessages == 0 ? CompletableFuture.completedFuture(null) : writeFrontendMessage()));
+  }
+
+  /**
+   * Flush and wait for the results of all queries to be read, then return to the previous connection state. This fails
+   * if the connection became unusable during the pipeline.
+   */
+  public CompletableFuture<T> done() {
+    CompletableFuture<Void> flushed = flush();
+    ended = true;
+    return flushed.thenCompose(__ -> lastRead).whenComplete((__, ___) -> ctx.pipelining = false).thenCompose(__ -> {
+      Throwable failure = this.failure;
+      if (failure != null) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        ret.completeExceptionally(failure);
+        return ret;
+      }
+      prevConn.resumeControl();
+      return CompletableFuture.completedFuture(prevConn);
+    });
+  }
+
+  @Override
+  protected CompletableFuture<QueryReadyConnection.AutoCommit> reset() {
+    log.log(Level.FINER, "Resetting from pipeline");
+    return done().thenCompose(Started::reset);
+  }
+
+  /** Run the write after all previous ones, failing any unwritten queries if it fails */
+  protected CompletableFuture<Void> chainWrite(Supplier<CompletableFuture<Void>> write) {
+    lastWrite = lastWrite.thenCompose(__ -> write.get());
+    lastWrite.whenComplete((__, ex) -> {
+      if (ex == null) return;
+      List<PendingQuery<?>> failed;
+      synchronized (unwritten) {
+        failed = new ArrayList<>(unwritten);
+        unwritten.clear();
+      }
+      failed.forEach(pending -> pending.result.completeExceptionally(ex));
+    });
+    return lastWrite;
+  }
+
+  protected CompletableFuture<Void> sendPendingQuery(PendingQuery<?> pending) {
+    // The state objects are only used to build the messages, control never passes to them
+    QueryBuildConnection.Prepared<T> prepared = new QueryBuildConnection.Prepared<>(ctx, prevConn, "");
+    QueryBuildConnection.Bound<T> bound = new QueryBuildConnection.Bound<>(ctx, prevConn, prepared, "");
+    boolean[] formats = ctx.config.preferText ?
+        QueryBuildConnection.Prepared.FORMAT_TEXT_ALL : QueryBuildConnection.Prepared.FORMAT_BINARY_ALL;
+    return written(prevConn.sendParse("", pending.query)).
+        thenCompose(__ -> written(prepared.sendBindWithConvertedParams("", formats, formats, pending.params))).
+        thenCompose(__ -> written(bound.sendDescribe(true, ""))).
+        thenCompose(__ -> written(bound.sendExecute(0))).
+        thenCompose(__ -> {
+          synchronized (unwritten) { unwritten.add(pending); }
+          return written(prepared.queueSync());
+        });
+  }
+
+  /**
+   * Given the future of a frontend message just sent or queued, start reading results for all queries whose sync was
+   * part of a write. Reading begins as soon as the write begins so the server is never blocked sending results back.
+   */
+  protected CompletableFuture<Void> written(CompletableFuture<Void> sent) {
+    if (ctx.queuedFrontendMessages == 0) {
+      synchronized (unwritten) {
+        for (PendingQuery<?> pending : unwritten) lastRead = lastRead.thenCompose(__ -> readPendingQuery(pending));
+        unwritten.clear();
+      }
+    }
+    return sent;
+  }
+
+  protected <R> CompletableFuture<Void> readPendingQuery(PendingQuery<R> pending) {
+    Throwable failure = this.failure;
+    if (failure != null) {
+      pending.result.completeExceptionally(failure);
+      return CompletableFuture.completedFuture(null);
+    }
+    QueryResultConnection<QueryPipelineConnection<T>> result = new QueryResultConnection<>(ctx, this, true);
+    CompletableFuture<R> handled;
+    try {
+      handled = pending.handler.apply(result);
+    } catch (Throwable e) {
+      handled = new CompletableFuture<>();
+      handled.completeExceptionally(e);
+    }
+    CompletableFuture<R> handledFinal = handled;
+    // Regardless of how the handler went, consume through the ready-for-query to get to the next query
+    return handled.handle((__, ___) -> result.done()).thenCompose(Function.identity()).handle((__, doneEx) -> {
+      if (doneEx != null) {
+        log.log(Level.FINE, "Pipeline failed reading results", doneEx);
+        this.failure = doneEx;
+        pending.result.completeExceptionally(doneEx);
+      } else {
+        handledFinal.whenComplete((value, ex) -> {
+          if (ex != null) pending.result.completeExceptionally(ex);
+          else pending.result.complete(value);
+        });
+      }
+      return null;
+    });
+  }
+
+  /** A query in the pipeline waiting on its results */
+  protected class PendingQuery<R> {
+    protected final Function<QueryResultConnection<QueryPipelineConnection<T>>, CompletableFuture<R>> handler;
+    protected final String query;
+    protected final Object[] params;
+    protected final CompletableFuture<R> result = new CompletableFuture<>();
+
+    protected PendingQuery(Function<QueryResultConnection<QueryPipelineConnection<T>>, CompletableFuture<R>> handler,
+        String query, Object[] params) {
+      this.handler = handler;
+      this.query = query;
+      this.params = params;
+    }
+  }
+}
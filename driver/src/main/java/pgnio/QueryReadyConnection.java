@@ -4,6 +4,10 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 /** Base connection state when the server is ready to execute queries */
@@ -14,9 +18,8 @@ public abstract class QueryReadyConnection<SELF extends QueryReadyConnection<SEL
   public @Nullable TransactionStatus getTransactionStatus() { return ctx.lastTransactionStatus; }
 
   protected CompletableFuture<Void> sendQuery(String query) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'Q').writeLengthIntBegin().writeCString(query).writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage();
   }
 
@@ -49,13 +52,12 @@ public abstract class QueryReadyConnection<SELF extends QueryReadyConnection<SEL
   }
 
   protected CompletableFuture<Void> sendParse(String statementName, String query, int... parameterDataTypes) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'P').writeLengthIntBegin().writeCString(statementName).writeCString(query).
         writeShort((short) parameterDataTypes.length);
     for (int parameterDataType : parameterDataTypes) ctx.writeInt(parameterDataType);
     ctx.writeLengthIntEnd();
-    ctx.buf.flip();
-    return writeFrontendMessage();
+    return queueFrontendMessage();
   }
 
   /**
@@ -109,6 +111,17 @@ public abstract class QueryReadyConnection<SELF extends QueryReadyConnection<SEL
     return preparedQuery(query, params).thenCompose(QueryResultConnection::done);
   }
 
+  /**
+   * Begin pipeline mode where queries are sent without waiting for the results of the ones before them. See
+   * {@link QueryPipelineConnection}. {@link QueryPipelineConnection#done()} returns back here.
+   */
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<QueryPipelineConnection<SELF>> pipeline() {
+    assertValid();
+    log.log(Level.FINE, "Beginning pipeline");
+    return CompletableFuture.completedFuture(passControlTo(new QueryPipelineConnection<>(ctx, (SELF) this)));
+  }
+
   /** Begin a "COPY FROM STDIN" query. {@link #simpleQuery(String)} + {@link QueryResultConnection#copyIn()} */
   public CompletableFuture<QueryResultConnection.Copy<SELF>> simpleCopyIn(String query) {
     return simpleQuery(query).thenCompose(QueryResultConnection::copyIn);
@@ -119,6 +132,92 @@ public abstract class QueryReadyConnection<SELF extends QueryReadyConnection<SEL
     return simpleQuery(query).thenCompose(QueryResultConnection::copyOut);
   }
 
+  /**
+   * Run the queries made by the given function with a deadline across all of them, not just each read and write. If
+   * the deadline is reached first, {@link #cancel()} is sent and the result fails with
+   * {@link DriverException.DeadlineExceeded} once the cancelled queries have unwound. As with other query errors,
+   * {@link #fullReset()} can then be used to keep using this connection. If they haven't unwound within
+   * {@link Config#deadlineCancelGrace} of the deadline, the result fails anyway and the connection is closed as it is
+   * no longer in a known state. A timeout of 0 means no deadline. The deadline is tracked on
+   * {@link Config#deadlineTimer}.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> withDeadline(long timeout, TimeUnit timeoutUnit,
+      Function<SELF, CompletableFuture<T>> fn) {
+    if (timeout == 0) return fn.apply((SELF) this);
+    CompletableFuture<T> ret = new CompletableFuture<>();
+    CompletableFuture<@Nullable Void> cancelSent = new CompletableFuture<>();
+    DeadlineTimer.Timeout deadline = ctx.config.deadlineTimer.schedule(() -> {
+      log.log(Level.FINE, "{0} Deadline reached, cancelling", ctx);
+      // Bound the wait on the cancel, which may never unwind the queries if the server or network is stuck
+      ctx.config.deadlineTimer.schedule(() -> {
+        if (ret.isDone()) return;
+        log.log(Level.WARNING, "{0} Queries did not unwind after deadline cancel, closing", ctx);
+        ctx.io.close();
+        ret.completeExceptionally(new DriverException.DeadlineExceeded(timeout, timeoutUnit, null));
+      }, ctx.config.deadlineCancelGrace, ctx.config.deadlineCancelGraceUnit);
+      // The result waits on this so the cancel can't land on a later query. It is sent from the common pool since
+      // blocking IO would connect and write in place, holding up every other timeout on the timer thread.
+      CompletableFuture.supplyAsync(this::cancel, ForkJoinPool.commonPool()).thenCompose(Function.identity()).
+          whenComplete((__, ex) -> {
+            if (ex != null) log.log(Level.WARNING, "Failed sending cancel after deadline", ex);
+            cancelSent.complete(null);
+          });
+    }, timeout, timeoutUnit);
+    CompletableFuture<T> fut;
+    try {
+      fut = fn.apply((SELF) this);
+    } catch (Throwable e) {
+      deadline.cancel();
+      throw e;
+    }
+    fut.whenComplete((val, ex) -> {
+      Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+      if (!deadline.cancel()) {
+        cancelSent.thenRun(() -> ret.completeExceptionally(
+            new DriverException.DeadlineExceeded(timeout, timeoutUnit, cause)));
+      } else if (cause != null) {
+        ret.completeExceptionally(cause);
+      } else {
+        ret.complete(val);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Whether the server session matches the given attributes. {@link Config.TargetSessionAttrs#PREFER_STANDBY} only
+   * matches a standby here. This uses the "in_hot_standby" and "default_transaction_read_only" runtime parameters when
+   * the server reports them (Postgres 14 and newer) or asks with a query otherwise.
+   */
+  public CompletableFuture<Boolean> matchesTargetSessionAttrs(Config.TargetSessionAttrs attrs) {
+    if (attrs == Config.TargetSessionAttrs.ANY) return CompletableFuture.completedFuture(true);
+    String inHotStandby = ctx.runtimeParameters.get("in_hot_standby");
+    String defaultReadOnly = ctx.runtimeParameters.get("default_transaction_read_only");
+    CompletableFuture<Boolean[]> state;
+    if (inHotStandby != null && defaultReadOnly != null) {
+      state = CompletableFuture.completedFuture(
+          new Boolean[] { "on".equals(inHotStandby), "on".equals(defaultReadOnly) });
+    } else {
+      state = simpleQueryRows("SELECT pg_is_in_recovery(), current_setting('transaction_read_only') = 'on'").
+          thenApply(rows -> new Boolean[] {
+              RowReader.DEFAULT.get(rows.get(0), 0, Boolean.class), RowReader.DEFAULT.get(rows.get(0), 1, Boolean.class)
+          });
+    }
+    return state.thenApply(standbyAndReadOnly -> {
+      boolean standby = standbyAndReadOnly[0], readOnly = standbyAndReadOnly[1];
+      switch (attrs) {
+        case READ_WRITE: return !standby && !readOnly;
+        case READ_ONLY: return standby || readOnly;
+        case PRIMARY: return !standby;
+        case STANDBY:
+        case PREFER_STANDBY:
+          return standby;
+        default: return true;
+      }
+    });
+  }
+
   /** Known transaction statuses when a query set ends */
   public enum TransactionStatus { IDLE, IN_TRANSACTION, FAILED_TRANSACTION }
 
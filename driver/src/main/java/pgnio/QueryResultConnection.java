@@ -2,10 +2,14 @@ package pgnio;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.*;
 import java.util.logging.Level;
@@ -22,6 +26,7 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
   protected final boolean willEndWithDone;
   protected boolean copyInWaitingForComplete;
   protected boolean copyOutWaitingForComplete;
+  protected @Nullable RowView rowView;
 
   protected QueryResultConnection(Context ctx, T prevConn, boolean willEndWithDone) {
     super(ctx);
@@ -40,8 +45,8 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
 
   /** Note, this consumes the buf */
   protected QueryMessage handleReadMessage() {
-    char typ = (char) ctx.buf.get();
-    ctx.buf.position(5);
+    char typ = (char) ctx.readBuf.get();
+    ctx.readBuf.position(5);
     switch (typ) {
       // ParseComplete
       case '1':
@@ -58,8 +63,8 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
         return new QueryMessage.CopyDone(queryCounter);
       // CopyData
       case 'd':
-        byte[] copyBytes = new byte[ctx.buf.remaining()];
-        ctx.buf.get(copyBytes);
+        byte[] copyBytes = new byte[ctx.readBuf.remaining()];
+        ctx.readBuf.get(copyBytes);
         return new QueryMessage.CopyData(queryCounter, copyBytes);
       // NoData
       case 'n':
@@ -69,8 +74,8 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
         return new QueryMessage.PortalSuspended(queryCounter);
       // ParameterDescription
       case 't':
-        int[] paramOids = new int[ctx.buf.getShort()];
-        for (int i = 0; i < paramOids.length; i++) paramOids[i] = ctx.buf.getInt();
+        int[] paramOids = new int[ctx.readBuf.getShort()];
+        for (int i = 0; i < paramOids.length; i++) paramOids[i] = ctx.readBuf.getInt();
         return new QueryMessage.ParamMeta(queryCounter, paramOids);
       // EmptyQueryResponse
       case 'B':
@@ -82,14 +87,14 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
         return new QueryMessage.Complete(queryCounter, lastRowMeta, tag);
       // DataRow
       case 'D':
-        byte[]@Nullable [] values = new byte[ctx.buf.getShort()][];
+        byte[]@Nullable [] values = new byte[ctx.readBuf.getShort()][];
         for (int i = 0; i < values.length; i++) {
-          int length = ctx.buf.getInt();
+          int length = ctx.readBuf.getInt();
           if (length == -1) values[i] = null;
           else if (length == 0) values[i] = new byte[0];
           else {
             byte[] bytes = new byte[length];
-            ctx.buf.get(bytes);
+            ctx.readBuf.get(bytes);
             values[i] = bytes;
           }
         }
@@ -100,9 +105,9 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
       case 'H':
       // CopyBothResponse
       case 'W':
-        boolean text = ctx.buf.get() == 0;
-        boolean[] columnsText = new boolean[ctx.buf.getShort()];
-        for (int i = 0; i < columnsText.length; i++) columnsText[i] = ctx.buf.getShort() == 0;
+        boolean text = ctx.readBuf.get() == 0;
+        boolean[] columnsText = new boolean[ctx.readBuf.getShort()];
+        for (int i = 0; i < columnsText.length; i++) columnsText[i] = ctx.readBuf.getShort() == 0;
         QueryMessage.CopyBegin.Direction dir = typ == 'G' ? QueryMessage.CopyBegin.Direction.IN :
             (typ == 'H' ? QueryMessage.CopyBegin.Direction.OUT : QueryMessage.CopyBegin.Direction.BOTH);
         if (dir != QueryMessage.CopyBegin.Direction.IN) copyOutWaitingForComplete = true;
@@ -110,13 +115,13 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
         return new QueryMessage.CopyBegin(queryCounter, dir, text, columnsText);
       // RowDescription
       case 'T':
-        short len = ctx.buf.getShort();
+        short len = ctx.readBuf.getShort();
         QueryMessage.RowMeta.Column[] columns = new QueryMessage.RowMeta.Column[len];
         Map<String, QueryMessage.RowMeta.Column> columnsByName = new HashMap<>(len);
         for (int i = 0; i < len; i++) {
           QueryMessage.RowMeta.Column column = new QueryMessage.RowMeta.Column(
-              i, ctx.bufReadString(), ctx.buf.getInt(), ctx.buf.getShort(), ctx.buf.getInt(),
-              ctx.buf.getShort(), ctx.buf.getInt(), ctx.buf.getShort() == 0);
+              i, ctx.bufReadString(), ctx.readBuf.getInt(), ctx.readBuf.getShort(), ctx.readBuf.getInt(),
+              ctx.readBuf.getShort(), ctx.readBuf.getInt(), ctx.readBuf.getShort() == 0);
           columns[i] = column;
           columnsByName.put(column.name.toLowerCase(), column);
         }
@@ -134,22 +139,299 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
   @SuppressWarnings("return.type.incompatible")
   public CompletableFuture<@Nullable QueryMessage> next() {
     if (isDone()) return CompletableFuture.completedFuture(null);
-    return readNonGeneralBackendMessage().thenApply(__ -> handleReadMessage()).whenComplete((msg, ex) -> {
-      // Up the counter and remove the last meta if complete/errored
-      if (msg.isQueryEndingMessage() || ex instanceof DriverException.FromServer) {
-        queryCounter++;
-        lastRowMeta = null;
+    return trackNext(readNonGeneralBackendMessage().thenApply(__ -> handleReadMessage()));
+  }
+
+  /**
+   * Like {@link #next()} except a row message larger than the threshold in bytes is not buffered whole. Instead, each
+   * value in it larger than the threshold is given to the handler in chunks as it is read and is left null in the
+   * returned row. See {@link #forEachRowStreamingAsync(int, ColumnChunkHandler, Function)}.
+   */
+  @SuppressWarnings("return.type.incompatible")
+  public CompletableFuture<@Nullable QueryMessage> nextStreaming(int threshold, ColumnChunkHandler handler) {
+    if (isDone()) return CompletableFuture.completedFuture(null);
+    return trackNext(readStreamingMessage(threshold, handler));
+  }
+
+  protected CompletableFuture<QueryMessage> trackNext(CompletableFuture<QueryMessage> fut) {
+    return fut.whenComplete(this::track);
+  }
+
+  protected void track(QueryMessage msg, @Nullable Throwable ex) {
+    // Up the counter and remove the last meta if complete/errored
+    if (msg.isQueryEndingMessage() || ex instanceof DriverException.FromServer) {
+      queryCounter++;
+      lastRowMeta = null;
+    }
+    if (msg instanceof QueryMessage.PortalSuspended) suspended = true;
+    if (msg instanceof QueryMessage.ReadyForQuery) done = true;
+  }
+
+  /** Whether the next message is fully buffered and not one for {@link #handleGeneralResponse()} */
+  protected boolean hasBufferedNonGeneralMessage() {
+    if (!hasBufferedBackendMessage()) return false;
+    switch (ctx.readAheadBuf.get(ctx.readAheadBuf.position())) {
+      case 'A': case 'E': case 'N': case 'S': return false;
+      default: return true;
+    }
+  }
+
+  /**
+   * Run the function for each message from {@link #next()} using {@link #loop(Supplier)} until it gives false. Messages
+   * that are already buffered are handled without a future. The function is given null once the results are done.
+   */
+  protected CompletableFuture<Void> loopMessages(Function<@Nullable QueryMessage, CompletableFuture<Boolean>> fn) {
+    return loop(() -> {
+      if (isDone()) return fn.apply(null);
+      if (!hasBufferedNonGeneralMessage()) return next().thenCompose(fn);
+      takeBufferedBackendMessage();
+      QueryMessage msg = handleReadMessage();
+      track(msg, null);
+      return fn.apply(msg);
+    });
+  }
+
+  /**
+   * Like {@link #loopMessages(Function)} except data rows are given to the function as the reused {@link RowView}
+   * instead of being copied. Other messages are given to the skipped consumer if present, and the loop stops at the end
+   * of the query.
+   */
+  protected CompletableFuture<Void> loopRowViews(@Nullable Consumer<QueryMessage> skipped,
+      Function<RowView, CompletableFuture<Boolean>> fn) {
+    return loop(() -> {
+      if (isDone()) return LOOP_STOP;
+      if (!hasBufferedNonGeneralMessage())
+        return readNonGeneralBackendMessage().thenCompose(__ -> rowViewStep(skipped, fn));
+      takeBufferedBackendMessage();
+      return rowViewStep(skipped, fn);
+    });
+  }
+
+  protected CompletableFuture<Boolean> rowViewStep(@Nullable Consumer<QueryMessage> skipped,
+      Function<RowView, CompletableFuture<Boolean>> fn) {
+    if (ctx.readBuf.get(0) == 'D') {
+      RowView view = rowView;
+      if (view == null) rowView = view = new RowView();
+      view.reset(queryCounter, lastRowMeta, ctx.readBuf);
+      return fn.apply(view);
+    }
+    QueryMessage msg = handleReadMessage();
+    track(msg, null);
+    if (skipped != null) skipped.accept(msg);
+    return msg.isQueryEndingMessage() ? LOOP_STOP : LOOP_CONTINUE;
+  }
+
+  /** Read the next non-general message, streaming it with {@link #readStreamedRow} if it is a large enough row */
+  protected CompletableFuture<QueryMessage> readStreamingMessage(int threshold, ColumnChunkHandler handler) {
+    // Peek at the header to decide
+    return fillReadAheadBuf(5, ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit).thenCompose(__ -> {
+      int position = ctx.readAheadBuf.position();
+      if (ctx.readAheadBuf.get(position) == 'D' && ctx.readAheadBuf.getInt(position + 1) > threshold) {
+        ctx.readAheadBuf.position(position + 5);
+        return readStreamedRow(threshold, handler);
+      }
+      return readBackendMessage().thenCompose(___ -> {
+        CompletableFuture<Void> generalHandled = handleGeneralResponse();
+        if (generalHandled == null) return CompletableFuture.completedFuture(handleReadMessage());
+        return generalHandled.thenCompose(____ -> readStreamingMessage(threshold, handler));
+      });
+    });
+  }
+
+  /** Read the rest of a data row whose header has been consumed from the read-ahead buffer */
+  protected CompletableFuture<QueryMessage> readStreamedRow(int threshold, ColumnChunkHandler handler) {
+    long timeout = ctx.config.defaultTimeout;
+    TimeUnit timeoutUnit = ctx.config.defaultTimeoutUnit;
+    return fillReadAheadBuf(2, timeout, timeoutUnit).thenCompose(__ -> {
+      byte[]@Nullable [] values = new byte[ctx.readAheadBuf.getShort()][];
+      QueryMessage.@Nullable RowMeta meta = lastRowMeta;
+      return readStreamedValues(threshold, handler, meta, values, 0).
+          thenApply(___ -> new QueryMessage.Row(queryCounter, meta, values));
+    });
+  }
+
+  /** Read values from the given index on, only going async when more must be read from the server */
+  protected CompletableFuture<Void> readStreamedValues(int threshold, ColumnChunkHandler handler,
+      QueryMessage.@Nullable RowMeta meta, byte[]@Nullable [] values, int index) {
+    long timeout = ctx.config.defaultTimeout;
+    TimeUnit timeoutUnit = ctx.config.defaultTimeoutUnit;
+    for (int i = index; i < values.length; i++) {
+      int valueIndex = i;
+      if (ctx.readAheadBuf.remaining() < 4) {
+        return fillReadAheadBuf(4, timeout, timeoutUnit).
+            thenCompose(__ -> readStreamedValues(threshold, handler, meta, values, valueIndex));
+      }
+      int length = ctx.readAheadBuf.getInt(ctx.readAheadBuf.position());
+      if (length > threshold) {
+        ctx.readAheadBuf.position(ctx.readAheadBuf.position() + 4);
+        return streamValue(handler, meta, valueIndex, length).
+            thenCompose(__ -> readStreamedValues(threshold, handler, meta, values, valueIndex + 1));
+      }
+      if (length > 0 && ctx.readAheadBuf.remaining() < 4 + length) {
+        return fillReadAheadBuf(4 + length, timeout, timeoutUnit).
+            thenCompose(__ -> readStreamedValues(threshold, handler, meta, values, valueIndex));
+      }
+      ctx.readAheadBuf.position(ctx.readAheadBuf.position() + 4);
+      if (length == -1) values[i] = null;
+      else {
+        byte[] bytes = new byte[length];
+        ctx.readAheadBuf.get(bytes);
+        values[i] = bytes;
+      }
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Give the handler chunks of the value from the read-ahead buffer, reading more into it as needed. This loops instead
+   * of recursing while reads and the handler complete immediately so a large value doesn't grow the stack.
+   */
+  protected CompletableFuture<Void> streamValue(ColumnChunkHandler handler, QueryMessage.@Nullable RowMeta meta,
+      int index, int remaining) {
+    while (true) {
+      int left = remaining;
+      if (!ctx.readAheadBuf.hasRemaining()) {
+        CompletableFuture<Void> filled = fillReadAheadBuf(1, ctx.config.defaultTimeout, ctx.config.defaultTimeoutUnit);
+        if (!filled.isDone() || filled.isCompletedExceptionally())
+          return filled.thenCompose(__ -> streamValue(handler, meta, index, left));
       }
-      if (msg instanceof QueryMessage.PortalSuspended) suspended = true;
-      if (msg instanceof QueryMessage.ReadyForQuery) done = true;
+      int chunkSize = Math.min(remaining, ctx.readAheadBuf.remaining());
+      ByteBuffer chunk = ctx.readAheadBuf.duplicate();
+      chunk.limit(chunk.position() + chunkSize);
+      ctx.readAheadBuf.position(ctx.readAheadBuf.position() + chunkSize);
+      CompletableFuture<Void> handled = handler.chunk(meta, index, chunk.slice(), chunkSize == remaining);
+      if (chunkSize == remaining) return handled;
+      remaining -= chunkSize;
+      if (!handled.isDone() || handled.isCompletedExceptionally())
+        return handled.thenCompose(__ -> streamValue(handler, meta, index, left - chunkSize));
+    }
+  }
+
+  /**
+   * Get/wait for the next data row in the current query as a view over the read buffer instead of a copied
+   * {@link QueryMessage.Row}. Other messages are skipped. Null is returned once the query has ended, like
+   * {@link #forEachRowAsync(Function)} does. The same view is returned each time and is only valid until the next read
+   * on this connection.
+   */
+  @SuppressWarnings("return.type.incompatible")
+  public CompletableFuture<@Nullable RowView> nextRowView() {
+    RowView[] ret = new RowView[1];
+    return loopRowViews(null, view -> {
+      ret[0] = view;
+      return LOOP_STOP;
+    }).thenApply(__ -> ret[0]);
+  }
+
+  /** Synchronous form of {@link #forEachRowViewAsync(Function)} */
+  public CompletableFuture<Void> forEachRowView(Consumer<RowView> fn) {
+    return loopRowViews(null, view -> {
+      fn.accept(view);
+      return LOOP_CONTINUE;
     });
   }
 
+  /**
+   * Like {@link #forEachRowAsync(Function)} but each row is given as the view from {@link #nextRowView()}, so nothing
+   * is allocated per row. The view must not be used after the returned future completes.
+   */
+  public CompletableFuture<Void> forEachRowViewAsync(Function<RowView, CompletableFuture<Void>> fn) {
+    return loopRowViews(null, view -> continueAfter(fn.apply(view)));
+  }
+
+  /**
+   * Decode all remaining rows in the current query into a single {@link ColumnarBatch}. Call again for successive
+   * queries.
+   */
+  public CompletableFuture<ColumnarBatch> collectColumnar() {
+    ColumnarBatch[] ret = new ColumnarBatch[1];
+    return forEachColumnarAsync(Integer.MAX_VALUE, batch -> {
+      ret[0] = batch;
+      return CompletableFuture.completedFuture(null);
+    }).thenApply(__ -> ret[0]);
+  }
+
+  /** Synchronous form of {@link #forEachColumnarAsync(int, Function)} */
+  public CompletableFuture<Void> forEachColumnar(int maxRows, Consumer<ColumnarBatch> fn) {
+    return forEachColumnarAsync(maxRows, batch -> {
+      fn.accept(batch);
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  /**
+   * Decode the remaining rows in the current query into {@link ColumnarBatch}es of up to maxRows rows each, running the
+   * function for each. Call again for successive queries. The next batch is not started until the future returned by
+   * the previous call to the function is complete. The function is called at least once, with an empty batch if there
+   * are no rows.
+   */
+  public CompletableFuture<Void> forEachColumnarAsync(int maxRows,
+      Function<ColumnarBatch, CompletableFuture<Void>> fn) {
+    if (maxRows < 1) throw new IllegalArgumentException("Max rows must be at least 1");
+    return forEachColumnarAsync(maxRows, fn, true);
+  }
+
+  protected CompletableFuture<Void> forEachColumnarAsync(int maxRows,
+      Function<ColumnarBatch, CompletableFuture<Void>> fn, boolean first) {
+    return fillColumnar(new ColumnarBuilder(maxRows)).thenCompose(builder -> {
+      if (builder.rowCount == 0 && !first) return CompletableFuture.completedFuture(null);
+      if (builder.rowCount < maxRows) return fn.apply(builder.build());
+      return fn.apply(builder.build()).thenCompose(__ -> forEachColumnarAsync(maxRows, fn, false));
+    });
+  }
+
+  /** Add rows to the builder until it is full or the query has ended */
+  protected CompletableFuture<ColumnarBuilder> fillColumnar(ColumnarBuilder builder) {
+    return loopRowViews(builder::skipped, view -> {
+      builder.append(view);
+      return builder.rowCount < builder.maxRows ? LOOP_CONTINUE : LOOP_STOP;
+    }).thenApply(__ -> builder);
+  }
+
+  /** Builds up a {@link ColumnarBatch}, creating its columns once the metadata or first row is seen */
+  protected static class ColumnarBuilder {
+    protected final int maxRows;
+    protected QueryMessage.@Nullable RowMeta meta;
+    protected ColumnarBatch.Column @Nullable [] columns;
+    protected int rowCount;
+
+    protected ColumnarBuilder(int maxRows) { this.maxRows = maxRows; }
+
+    protected void skipped(QueryMessage msg) {
+      if (msg instanceof QueryMessage.RowMeta) meta = (QueryMessage.RowMeta) msg;
+    }
+
+    protected ColumnarBatch.Column[] columns(int count) {
+      ColumnarBatch.Column[] ret = columns;
+      if (ret == null) {
+        ret = new ColumnarBatch.Column[count];
+        int capacity = Math.min(maxRows, 1024);
+        for (int i = 0; i < count; i++)
+          ret[i] = ColumnarBatch.newColumn(i, meta == null ? null : meta.columns[i], capacity);
+        columns = ret;
+      }
+      return ret;
+    }
+
+    protected void append(RowView view) {
+      if (view.getMeta() != null) meta = view.getMeta();
+      for (ColumnarBatch.Column column : columns(view.size())) column.append(rowCount, view);
+      rowCount++;
+    }
+
+    protected ColumnarBatch build() {
+      return new ColumnarBatch(meta, rowCount, columns(meta == null ? 0 : meta.columns.length));
+    }
+  }
+
   /** Repeatedly call {@link #next()} until the predicate is matched or the it is done (which returns null) */
   @SuppressWarnings("return.type.incompatible")
   public CompletableFuture<@Nullable QueryMessage> next(Predicate<QueryMessage> pred) {
-    return next().thenCompose(msg ->
-        msg == null || pred.test(msg) ? CompletableFuture.completedFuture(msg) : next(pred));
+    QueryMessage[] ret = new QueryMessage[1];
+    return loopMessages(msg -> {
+      if (msg != null && !pred.test(msg)) return LOOP_CONTINUE;
+      ret[0] = msg;
+      return LOOP_STOP;
+    }).thenApply(__ -> ret[0]);
   }
 
   /** Shortcut for {@link #next(Predicate)} doing instanceof check */
@@ -179,6 +461,54 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
     return forEachRow(row -> accumulator.accept(ret, row)).thenApply(__ -> ret);
   }
 
+  /**
+   * Collect the rows like {@link #collectRows()} but only keep up to about maxHeapBytes of them on the heap, spilling
+   * the rest to a file in {@link Config#spillDirectory}. See {@link SpillingRows}, which must be closed when no longer
+   * needed. Spilled rows are written on the thread reading them.
+   */
+  public CompletableFuture<SpillingRows> collectRows(long maxHeapBytes) {
+    SpillingRows rows = new SpillingRows(maxHeapBytes, ctx.config.spillDirectory);
+    return loopRowViews(null, view -> {
+      try {
+        rows.add(view);
+      } catch (IOException e) { throw new RuntimeException(e); }
+      return LOOP_CONTINUE;
+    }).handle((__, ex) -> {
+      try {
+        if (ex == null) {
+          rows.finish();
+          return rows;
+        }
+      } catch (IOException e) { ex = e; }
+      rows.close();
+      throw asCompletionException(ex);
+    });
+  }
+
+  /** Shortcut for {@link #collectArena(int)} using {@link RowArena#DEFAULT_SLAB_SIZE} */
+  public CompletableFuture<RowArena> collectArena() { return collectArena(RowArena.DEFAULT_SLAB_SIZE); }
+
+  /**
+   * Collect the rows off the heap into a {@link RowArena} with slabs of the given size from the connection's
+   * {@link Config#bufferAllocator}. The arena should be closed when no longer needed.
+   */
+  public CompletableFuture<RowArena> collectArena(int slabSize) {
+    RowArena arena = new RowArena(ctx.allocator, slabSize);
+    return loopRowViews(null, view -> {
+      arena.append(view);
+      return LOOP_CONTINUE;
+    }).handle((__, ex) -> {
+      if (ex == null) return arena;
+      arena.close();
+      throw asCompletionException(ex);
+    });
+  }
+
+  /** The error as is if already a {@link CompletionException} or wrapped in one, to rethrow in a future's handler */
+  protected static CompletionException asCompletionException(Throwable ex) {
+    return ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+  }
+
   /** Run accumulator on {@link #forEachRow(Consumer)} constantly updating the initial value */
   public <R> CompletableFuture<R> reduceRows(R initial, BiFunction<R, ? super QueryMessage.Row, R> accumulator) {
     AtomicReference<R> ret = new AtomicReference<>(initial);
@@ -190,9 +520,10 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
    * the synchronous form of {@link #forEachRowAsync(Function)}.
    */
   public CompletableFuture<Void> forEachRow(Consumer<QueryMessage.Row> fn) {
-    return forEachRowAsync(row -> {
-      fn.accept(row);
-      return CompletableFuture.completedFuture(null);
+    return loopMessages(msg -> {
+      if (msg == null || msg.isQueryEndingMessage()) return LOOP_STOP;
+      if (msg instanceof QueryMessage.Row) fn.accept((QueryMessage.Row) msg);
+      return LOOP_CONTINUE;
     });
   }
 
@@ -201,14 +532,29 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
    * not be fetched until the future returned by the previous call to the given function is complete.
    */
   public CompletableFuture<Void> forEachRowAsync(Function<QueryMessage.Row, CompletableFuture<Void>> fn) {
-    return next().thenCompose(msg -> {
+    return loopMessages(msg -> {
       // Keep going until complete, only handling rows
-      if (msg == null || msg.isQueryEndingMessage()) return CompletableFuture.completedFuture(null);
-      if (!(msg instanceof QueryMessage.Row)) return forEachRowAsync(fn);
-      return fn.apply((QueryMessage.Row) msg).thenCompose(__ -> forEachRowAsync(fn));
+      if (msg == null || msg.isQueryEndingMessage()) return LOOP_STOP;
+      if (!(msg instanceof QueryMessage.Row)) return LOOP_CONTINUE;
+      return continueAfter(fn.apply((QueryMessage.Row) msg));
     });
   }
 
+  /**
+   * Like {@link #forEachRowAsync(Function)} but a row message larger than the threshold in bytes is never buffered
+   * whole. Each value in it larger than the threshold is given to the handler in chunks as it is read and is left null
+   * in the row given to the function, which is called once the whole row is read. So no matter how large a value is,
+   * memory used is bounded by the threshold and {@link Config#readBufferSize}.
+   */
+  public CompletableFuture<Void> forEachRowStreamingAsync(int threshold, ColumnChunkHandler handler,
+      Function<QueryMessage.Row, CompletableFuture<Void>> fn) {
+    return loop(() -> nextStreaming(threshold, handler).thenCompose(msg -> {
+      if (msg == null || msg.isQueryEndingMessage()) return LOOP_STOP;
+      if (!(msg instanceof QueryMessage.Row)) return LOOP_CONTINUE;
+      return continueAfter(fn.apply((QueryMessage.Row) msg));
+    }));
+  }
+
   /**
    * Skip all messages until query complete and return the row count (can be rows selected or affected). Call again if
    * needed for successive queries. Will return null if this ends without a complete message or if it is complete with
@@ -237,19 +583,42 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
       return new Copy<>(ctx, this, copyInWaitingForComplete, copyOutWaitingForComplete).done();
 
     if (!willEndWithDone) return CompletableFuture.completedFuture(prevConn);
-    // Consume a single one and try again if not done
-    return next().thenCompose(__ -> {
-      if (!isDone()) return done();
+    // Consume until done
+    return loopMessages(__ -> isDone() ? LOOP_STOP : LOOP_CONTINUE).thenApply(__ -> {
       prevConn.resumeControl();
-      return CompletableFuture.completedFuture(prevConn);
+      return prevConn;
     });
   }
 
+  /**
+   * Publisher of the rows of the current query, only reading rows as they are requested. See {@link RowPublisher}. This
+   * connection should not be used directly afterwards, use {@link RowPublisher#done()} instead.
+   */
+  public RowPublisher<T> rowPublisher() { return RowPublisher.of(this); }
+
   /** {@link #collectRows(Supplier, BiConsumer)} + {@link #done()} */
   public CompletableFuture<List<QueryMessage.Row>> collectRowsAndDone() {
     return collectRows().thenCompose(rows -> done().thenApply(__ -> rows));
   }
 
+  /** {@link #collectRows(long)} + {@link #done()} */
+  public CompletableFuture<SpillingRows> collectRowsAndDone(long maxHeapBytes) {
+    return collectRows(maxHeapBytes).thenCompose(rows -> done().handle((__, ex) -> {
+      if (ex == null) return rows;
+      rows.close();
+      throw asCompletionException(ex);
+    }));
+  }
+
+  /** {@link #collectArena()} + {@link #done()} */
+  public CompletableFuture<RowArena> collectArenaAndDone() {
+    return collectArena().thenCompose(arena -> done().handle((__, ex) -> {
+      if (ex == null) return arena;
+      arena.close();
+      throw asCompletionException(ex);
+    }));
+  }
+
   /** {@link #collectRowCount()} + {@link #done()} */
   @SuppressWarnings("return.type.incompatible")
   public CompletableFuture<@Nullable Long> collectRowCountAndDone() {
@@ -295,9 +664,8 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
   }
 
   protected CompletableFuture<Void> sendCopyData(byte[] data) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'd').writeLengthIntBegin().writeBytes(data).writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage();
   }
 
@@ -309,9 +677,8 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
   }
 
   protected CompletableFuture<Void> sendCopyDone() {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'c').writeLengthIntBegin().writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage().thenRun(() -> copyInWaitingForComplete = false);
   }
 
@@ -319,15 +686,25 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
   public CompletableFuture<Void> copyInComplete() { return sendCopyDone(); }
 
   protected CompletableFuture<Void> sendCopyFail(String message) {
-    ctx.buf.clear();
+    beginFrontendMessage();
     ctx.writeByte((byte) 'f').writeLengthIntBegin().writeCString(message).writeLengthIntEnd();
-    ctx.buf.flip();
     return writeFrontendMessage().thenRun(() -> copyInWaitingForComplete = false);
   }
 
   /** Send copy-in-fail to server as part of COPY */
   public CompletableFuture<Void> copyInFail(String message) { return sendCopyFail(message); }
 
+  /** Handler for large values streamed by {@link #nextStreaming(int, ColumnChunkHandler)} */
+  @FunctionalInterface
+  public interface ColumnChunkHandler {
+    /**
+     * Handle the next chunk of the value at the given column index of the row being read. The chunk is a view into the
+     * read buffer that is only valid until the returned future completes, and nothing more is read until then. Last is
+     * true for the final chunk of the value.
+     */
+    CompletableFuture<Void> chunk(QueryMessage.@Nullable RowMeta meta, int columnIndex, ByteBuffer chunk, boolean last);
+  }
+
   /** Connection state for copying data to/from the server */
   public static class Copy<T extends Connection.Started> extends Connection.Started {
     protected final QueryResultConnection<T> prevConn;
@@ -407,7 +784,7 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
     public CompletableFuture<Void> receiveEachData(Consumer<byte[]> fn) {
       return receiveEachDataAsync(data -> {
         fn.accept(data);
-        return CompletableFuture.completedFuture(null);
+        return LOOP_CONTINUE;
       });
     }
 
@@ -415,18 +792,19 @@ public class QueryResultConnection<T extends Connection.Started> extends Connect
      * Repeatedly call {@link #receiveData()} and pass to consumer until done. Fails if not copy-out mode. Next call is
      * not made until previous call's future is complete.
      */
-    public CompletableFuture<Void> receiveEachDataAsync(Function<byte[], CompletableFuture<Void>> fn) {
-      return receiveData().thenCompose(data -> {
-        if (data == null) return CompletableFuture.completedFuture(null);
-        return fn.apply(data).thenCompose(__ -> receiveEachDataAsync(fn));
+    public CompletableFuture<Void> receiveEachDataAsync(Function<byte[], ? extends CompletableFuture<?>> fn) {
+      if (isCopyOutComplete()) return CompletableFuture.completedFuture(null);
+      return prevConn.loopMessages(msg -> {
+        if (msg instanceof QueryMessage.CopyData) return continueAfter(fn.apply(((QueryMessage.CopyData) msg).bytes));
+        if (msg != null && !(msg instanceof QueryMessage.CopyDone)) return LOOP_CONTINUE;
+        copyOutComplete = true;
+        return LOOP_STOP;
       });
     }
 
     /** Essentially a "drain" that reads the copy-out messages until done. Fails if not copy-out-mode. */
     public CompletableFuture<Copy<T>> receiveIgnoreUntilComplete() {
-      if (isCopyOutComplete()) return CompletableFuture.completedFuture(this);
-      return receiveData().thenCompose(data ->
-          data == null ? CompletableFuture.completedFuture(this) : receiveIgnoreUntilComplete());
+      return receiveEachData(data -> { }).thenApply(__ -> this);
     }
 
     /**
@@ -0,0 +1,142 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Store of result rows off the heap, created by {@link QueryResultConnection#collectArena()}, meant for results that
+ * are kept around such as cached reference tables. The data row bodies are copied as they are on the wire, one after
+ * another, into direct slab buffers from the {@link BufferAllocator}, and the only heap used per row is an entry of
+ * the index of where each starts. Rows are read by index through a {@link Reader}, which positions its {@link RowView}
+ * on the row without creating anything. Positioning walks the lengths of all of the row's columns, so the reader stays
+ * on the last row asked for and getting each column of a row in turn only walks them once. The arena must not be
+ * changed once collected, but any number of readers can be used concurrently, one per thread.
+ */
+public class RowArena implements Closeable {
+  /** The default size of each slab, 1 MB */
+  public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+  protected final BufferAllocator allocator;
+  /** The size of each slab. Rows larger than this get a slab of their own. */
+  public final int slabSize;
+  protected int queryIndex;
+  protected QueryMessage.@Nullable RowMeta meta;
+  protected ByteBuffer[] slabs = new ByteBuffer[4];
+  protected int slabCount;
+  // The slab index in the high 32 bits and the offset in it in the low 32 bits
+  protected long[] index = new long[1024];
+  protected int size;
+  protected volatile boolean closed;
+
+  protected RowArena(BufferAllocator allocator, int slabSize) {
+    if (slabSize <= 0) throw new IllegalArgumentException("Slab size must be positive");
+    this.allocator = allocator;
+    this.slabSize = slabSize;
+  }
+
+  /** The number of rows */
+  public int size() { return size; }
+
+  /** The row metadata for the query if any */
+  public QueryMessage.@Nullable RowMeta getMeta() { return meta; }
+
+  /** The bytes of the slabs used by rows */
+  public long getUsedBytes() {
+    long ret = 0;
+    for (int i = 0; i < slabCount; i++) ret += slabs[i].position();
+    return ret;
+  }
+
+  /** Copy the row at the view into the arena */
+  protected void append(RowView view) {
+    queryIndex = view.getQueryIndex();
+    meta = view.getMeta();
+    ByteBuffer body = view.body();
+    ByteBuffer slab = slabCount == 0 ? null : slabs[slabCount - 1];
+    if (slab == null || slab.remaining() < body.remaining()) {
+      if (slabCount == slabs.length) slabs = Arrays.copyOf(slabs, slabCount * 2);
+      slab = allocator.allocate(Math.max(slabSize, body.remaining()), true);
+      slabs[slabCount++] = slab;
+    }
+    if (size == index.length) index = Arrays.copyOf(index, size * 2);
+    index[size++] = ((long) (slabCount - 1) << 32) | slab.position();
+    slab.put(body);
+  }
+
+  /** Create a reader of the rows. Each thread reading needs its own. */
+  public Reader reader() {
+    if (closed) throw new IllegalStateException("Arena closed");
+    return new Reader();
+  }
+
+  /** Give the slabs back to the allocator. Readers must not be used after this. */
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    for (int i = 0; i < slabCount; i++) allocator.release(slabs[i]);
+    slabs = new ByteBuffer[0];
+    slabCount = 0;
+    size = 0;
+  }
+
+  /** Reader of rows in the arena with its own view of the slabs. Not thread safe. */
+  public class Reader {
+    protected final ByteBuffer[] slabViews = new ByteBuffer[slabCount];
+    protected final RowView view = new RowView();
+    protected int viewRowIndex = -1;
+
+    protected Reader() { }
+
+    /** Position this reader's view on the row at the given index and return it. It is reused for every row. */
+    public RowView row(int rowIndex) {
+      if (closed) throw new IllegalStateException("Arena closed");
+      if (rowIndex == viewRowIndex) return view;
+      if (rowIndex < 0 || rowIndex >= size) throw new IndexOutOfBoundsException("No row at index " + rowIndex);
+      long entry = index[rowIndex];
+      int slabIndex = (int) (entry >>> 32);
+      ByteBuffer slab = slabViews[slabIndex];
+      if (slab == null) slabViews[slabIndex] = slab = slabs[slabIndex].duplicate();
+      view.reset(queryIndex, meta, slab, (int) entry);
+      viewRowIndex = rowIndex;
+      return view;
+    }
+
+    /** Whether the value at the row and column is null */
+    public boolean isNull(int rowIndex, int colIndex) { return row(rowIndex).isNull(colIndex); }
+
+    /** See {@link RowView#getInt(int)} */
+    public int getInt(int rowIndex, int colIndex) { return row(rowIndex).getInt(colIndex); }
+
+    /** See {@link RowView#getLong(int)} */
+    public long getLong(int rowIndex, int colIndex) { return row(rowIndex).getLong(colIndex); }
+
+    /** See {@link RowView#getDouble(int)} */
+    public double getDouble(int rowIndex, int colIndex) { return row(rowIndex).getDouble(colIndex); }
+
+    /** See {@link RowView#getBoolean(int)} */
+    public boolean getBoolean(int rowIndex, int colIndex) { return row(rowIndex).getBoolean(colIndex); }
+
+    /** See {@link RowView#getString(int)} */
+    public @Nullable String getString(int rowIndex, int colIndex) { return row(rowIndex).getString(colIndex); }
+
+    /** Shortcut for {@link #get(RowReader, int, int, Class)} using {@link RowReader#DEFAULT} */
+    public <T> @Nullable T get(int rowIndex, int colIndex, Class<T> typ) {
+      return get(RowReader.DEFAULT, rowIndex, colIndex, typ);
+    }
+
+    /** Convert the value at the row and column with the reader. See {@link RowView#get(RowReader, int, Class)}. */
+    public <T> @Nullable T get(RowReader reader, int rowIndex, int colIndex, Class<T> typ) {
+      return row(rowIndex).get(reader, colIndex, typ);
+    }
+
+    /** Same as {@link #get(RowReader, int, int, Class)} with the column looked up by name */
+    public <T> @Nullable T get(RowReader reader, int rowIndex, String colName, Class<T> typ) {
+      RowView view = row(rowIndex);
+      return view.get(reader, view.columnIndex(colName), typ);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Publisher of result rows that only reads as many rows as have been requested. It has the same contract as
+ * {@code java.util.concurrent.Flow.Publisher} (which is not available on Java 8) so a subscriber is easily adapted to
+ * one. There is a single subscriber. Rows are read from the connection only while there is outstanding demand, so
+ * memory stays proportional to it. For a {@link QueryBuildConnection.Bound}, each batch of demand is turned into an
+ * {@link QueryBuildConnection.Bound#execute(int)} and {@link QueryBuildConnection#flush()} of that many rows, up to a
+ * max, until the portal is no longer suspended. For a {@link QueryResultConnection}, reading just stops until there is
+ * more demand. Only rows of the first query are published. Use {@link #done()} to get the connection back once
+ * complete or cancelled. Signals are given on whatever thread the connection completes IO on.
+ */
+public abstract class RowPublisher<T extends Connection.Started> {
+  /** Create a publisher for the rows of the first query in the result */
+  public static <T extends Connection.Started> RowPublisher<T> of(QueryResultConnection<T> conn) {
+    return new OfResult<>(conn);
+  }
+
+  /** Create a publisher that executes the bound portal in batches of at most the given max rows as demand arrives */
+  public static <T extends QueryReadyConnection<T>> RowPublisher<T> of(QueryBuildConnection.Bound<T> conn,
+      int maxFetchRows) {
+    return new OfBound<>(conn, maxFetchRows);
+  }
+
+  protected final Connection.Started conn;
+  protected final CompletableFuture<T> done = new CompletableFuture<>();
+  protected @Nullable Subscriber subscriber;
+  // All of the below are only accessed while synchronized on this
+  protected long demand;
+  protected boolean running;
+  protected boolean cancelled;
+  protected @Nullable Throwable invalidRequest;
+  // All of the below are only accessed while running
+  protected @Nullable QueryResultConnection<?> current;
+  protected boolean exhausted;
+  protected QueryMessage.@Nullable RowMeta lastRowMeta;
+
+  protected RowPublisher(Connection.Started conn) { this.conn = conn; }
+
+  /**
+   * Subscribe to the rows. {@link Subscriber#onSubscribe(Subscription)} is called immediately. Subscribing more than
+   * once gives the later subscribers an error.
+   */
+  public void subscribe(Subscriber subscriber) {
+    boolean first;
+    synchronized (this) {
+      first = this.subscriber == null;
+      if (first) this.subscriber = subscriber;
+    }
+    if (!first) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) { }
+
+        @Override
+        public void cancel() { }
+      });
+      subscriber.onError(new IllegalStateException("Publisher already has a subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) { RowPublisher.this.request(n); }
+
+      @Override
+      public void cancel() { RowPublisher.this.cancel(); }
+    });
+  }
+
+  /**
+   * Future completed with the previous connection state once all rows have been published or the subscription was
+   * cancelled. It fails if reading fails.
+   */
+  public CompletableFuture<T> done() { return done.thenApply(Function.identity()); }
+
+  protected void request(long n) {
+    synchronized (this) {
+      if (n <= 0) {
+        if (invalidRequest == null) invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+        cancelled = true;
+      } else {
+        demand += n;
+        if (demand < 0) demand = Long.MAX_VALUE;
+      }
+      if (running) return;
+      running = true;
+    }
+    drain();
+  }
+
+  protected void cancel() {
+    synchronized (this) {
+      cancelled = true;
+      if (running) return;
+      running = true;
+    }
+    drain();
+  }
+
+  protected void drain() {
+    conn.loop(this::step).whenComplete((__, ex) -> {
+      if (ex != null) fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+    });
+  }
+
+  protected CompletableFuture<Boolean> step() {
+    if (isCancelled() || exhausted) {
+      finish();
+      return Connection.LOOP_STOP;
+    }
+    // Nothing more to do until there is more demand
+    long demand = demandOrPause();
+    if (demand == 0) return Connection.LOOP_STOP;
+    QueryResultConnection<?> current = this.current;
+    if (current == null) {
+      return fetch(demand).thenApply(next -> {
+        if (next == null) exhausted = true;
+        else if (lastRowMeta != null) next.lastRowMeta = lastRowMeta;
+        this.current = next;
+        return true;
+      });
+    }
+    return current.loopMessages(msg -> {
+      if (msg == null || msg.isQueryEndingMessage()) {
+        // Only a suspended portal can be fetched from again
+        if (msg instanceof QueryMessage.PortalSuspended) this.current = null;
+        else exhausted = true;
+        return Connection.LOOP_STOP;
+      }
+      if (msg instanceof QueryMessage.RowMeta) lastRowMeta = (QueryMessage.RowMeta) msg;
+      if (msg instanceof QueryMessage.Row) {
+        synchronized (this) { this.demand--; }
+        Subscriber subscriber = this.subscriber;
+        if (subscriber != null) subscriber.onNext((QueryMessage.Row) msg);
+      }
+      if (isCancelled()) return Connection.LOOP_STOP;
+      // Read past what is already buffered after the last row so the end is seen without more demand
+      if (isNextBufferedNonRow(current)) return Connection.LOOP_CONTINUE;
+      // Only the next step pauses, so a request can't start another drain while this one is still running
+      return getDemand() == 0 ? Connection.LOOP_STOP : Connection.LOOP_CONTINUE;
+    }).thenApply(__ -> true);
+  }
+
+  protected boolean isNextBufferedNonRow(QueryResultConnection<?> current) {
+    return current.hasBufferedNonGeneralMessage() &&
+        current.ctx.readAheadBuf.get(current.ctx.readAheadBuf.position()) != 'D';
+  }
+
+  protected synchronized boolean isCancelled() { return cancelled; }
+
+  protected synchronized long getDemand() { return demand; }
+
+  /**
+   * The current demand, or 0 after marking as not running so the next request starts draining again. Only called by
+   * {@link #step()} right before it stops the loop when this is 0.
+   */
+  protected synchronized long demandOrPause() {
+    if (demand == 0) running = false;
+    return demand;
+  }
+
+  /** Start reading up to the given number of rows, giving the result to read or null if there are no more */
+  protected abstract CompletableFuture<@Nullable QueryResultConnection<?>> fetch(long demand);
+
+  /** Finish reading and go back to the previous connection state */
+  protected abstract CompletableFuture<T> close();
+
+  protected void finish() {
+    close().whenComplete((prevConn, ex) -> {
+      if (ex != null) {
+        fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+        return;
+      }
+      Subscriber subscriber = this.subscriber;
+      Throwable invalidRequest;
+      boolean cancelled;
+      synchronized (this) {
+        invalidRequest = this.invalidRequest;
+        cancelled = this.cancelled;
+      }
+      if (subscriber != null && invalidRequest != null) subscriber.onError(invalidRequest);
+      else if (subscriber != null && !cancelled) subscriber.onComplete();
+      done.complete(prevConn);
+    });
+  }
+
+  protected void fail(Throwable ex) {
+    Subscriber subscriber = this.subscriber;
+    if (subscriber != null && !isCancelled()) subscriber.onError(ex);
+    done.completeExceptionally(ex);
+  }
+
+  /** Receiver of rows, same as {@code java.util.concurrent.Flow.Subscriber} */
+  public interface Subscriber {
+    /** Called once on subscribe before anything else */
+    void onSubscribe(Subscription subscription);
+
+    /** Called for each requested row */
+    void onNext(QueryMessage.Row row);
+
+    /** Called once if reading fails, with nothing called after */
+    void onError(Throwable ex);
+
+    /** Called once after the last row, with nothing called after */
+    void onComplete();
+  }
+
+  /** Demand of a subscriber, same as {@code java.util.concurrent.Flow.Subscription} */
+  public interface Subscription {
+    /** Ask for n more rows. Non-positive values cancel with an error. This can be called from any thread. */
+    void request(long n);
+
+    /** Stop publishing. The rest of the result is discarded. This can be called from any thread. */
+    void cancel();
+  }
+
+  /** Publisher over an already executed result */
+  protected static class OfResult<T extends Connection.Started> extends RowPublisher<T> {
+    protected final QueryResultConnection<T> result;
+    protected boolean fetched;
+
+    protected OfResult(QueryResultConnection<T> result) {
+      super(result);
+      this.result = result;
+    }
+
+    @Override
+    protected CompletableFuture<@Nullable QueryResultConnection<?>> fetch(long demand) {
+      QueryResultConnection<?> ret = fetched ? null : result;
+      fetched = true;
+      return CompletableFuture.completedFuture(ret);
+    }
+
+    @Override
+    protected CompletableFuture<T> close() { return result.done(); }
+  }
+
+  /** Publisher executing a bound portal a batch at a time */
+  protected static class OfBound<T extends QueryReadyConnection<T>> extends RowPublisher<T> {
+    protected final QueryBuildConnection.Bound<T> bound;
+    protected final int maxFetchRows;
+
+    protected OfBound(QueryBuildConnection.Bound<T> bound, int maxFetchRows) {
+      super(bound);
+      if (maxFetchRows <= 0) throw new IllegalArgumentException("Max fetch rows must be positive");
+      this.bound = bound;
+      this.maxFetchRows = maxFetchRows;
+    }
+
+    @Override
+    protected CompletableFuture<@Nullable QueryResultConnection<?>> fetch(long demand) {
+      return bound.execute((int) Math.min(demand, maxFetchRows)).
+          thenCompose(QueryBuildConnection::flush).thenApply(res -> res);
+    }
+
+    @Override
+    protected CompletableFuture<T> close() {
+      // The sync ends the portal and anything unread is discarded until ready for query
+      return bound.done().thenCompose(QueryResultConnection::done);
+    }
+  }
+}
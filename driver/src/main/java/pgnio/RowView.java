@@ -0,0 +1,223 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable view of a data row over the buffer it was read into, given by {@link QueryResultConnection#nextRowView()}.
+ * Nothing is copied when it is positioned on a row, only column offsets and lengths are recorded, and the primitive
+ * accessors read straight from the buffer. It is only valid until the connection reads again, so use
+ * {@link #toRow()} to keep a row. Views are also given over stored rows by {@link RowArena.Reader}. Not thread safe.
+ */
+public class RowView {
+  protected int queryIndex;
+  protected QueryMessage.@Nullable RowMeta meta;
+  protected ByteBuffer buf = ByteBuffer.allocate(0);
+  protected int size;
+  protected int[] offsets = new int[16];
+  protected int[] lengths = new int[16];
+  protected int start;
+  protected int end;
+
+  /** Position this view over the data row message in buf, which starts at the message type byte */
+  protected void reset(int queryIndex, QueryMessage.@Nullable RowMeta meta, ByteBuffer buf) {
+    reset(queryIndex, meta, buf, 5);
+  }
+
+  /** Position this view over the data row body in buf, which starts at the column count at the given index */
+  protected void reset(int queryIndex, QueryMessage.@Nullable RowMeta meta, ByteBuffer buf, int start) {
+    this.queryIndex = queryIndex;
+    this.meta = meta;
+    this.buf = buf;
+    this.start = start;
+    size = buf.getShort(start);
+    if (offsets.length < size) {
+      offsets = new int[Math.max(size, offsets.length * 2)];
+      lengths = new int[offsets.length];
+    }
+    int position = start + 2;
+    for (int i = 0; i < size; i++) {
+      int length = buf.getInt(position);
+      position += 4;
+      offsets[i] = position;
+      lengths[i] = length;
+      if (length > 0) position += length;
+    }
+    end = position;
+  }
+
+  /** The 0-based index of the query this row is for. See {@link QueryMessage#queryIndex}. */
+  public int getQueryIndex() { return queryIndex; }
+
+  /** The last seen row metadata for this query if any */
+  public QueryMessage.@Nullable RowMeta getMeta() { return meta; }
+
+  /** The number of columns */
+  public int size() { return size; }
+
+  /** The index of the column with the given name, case insensitive. This requires row metadata. */
+  public int columnIndex(String colName) {
+    if (meta == null) throw new DriverException.MissingRowMeta();
+    QueryMessage.RowMeta.Column col = meta.columnsByName.get(colName.toLowerCase());
+    if (col == null) throw new DriverException.ColumnNotPresent("No column for name " + colName);
+    return col.index;
+  }
+
+  /** The buffer the row is in. Read it with absolute gets using {@link #offset(int)} and {@link #length(int)}. */
+  public ByteBuffer buffer() { return buf; }
+
+  /**
+   * A duplicate of {@link #buffer()} over just the data row body, the column count and length-prefixed values without
+   * the message type and length before them. This is how rows are stored elsewhere and given back to
+   * {@link #reset(int, QueryMessage.RowMeta, ByteBuffer, int)}.
+   */
+  public ByteBuffer body() {
+    ByteBuffer ret = buf.duplicate();
+    ret.limit(end).position(start);
+    return ret;
+  }
+
+  /** The offset in {@link #buffer()} where the column's value starts */
+  public int offset(int colIndex) {
+    checkIndex(colIndex);
+    return offsets[colIndex];
+  }
+
+  /** The length in bytes of the column's value or -1 if it is null */
+  public int length(int colIndex) {
+    checkIndex(colIndex);
+    return lengths[colIndex];
+  }
+
+  /** Whether the column's value is null */
+  public boolean isNull(int colIndex) { return length(colIndex) == -1; }
+
+  /** Whether the column's value is in text format. This is true when there is no row metadata. */
+  public boolean isTextFormat(int colIndex) {
+    checkIndex(colIndex);
+    return meta == null || meta.columns[colIndex].textFormat;
+  }
+
+  /** Copy of the column's raw bytes or null if the value is null */
+  public byte@Nullable [] getBytes(int colIndex) {
+    int length = length(colIndex);
+    if (length == -1) return null;
+    byte[] ret = new byte[length];
+    copyBytes(colIndex, ret, 0);
+    return ret;
+  }
+
+  /**
+   * Copy the column's raw bytes into dst at the offset and return how many were copied. Nothing is copied for null.
+   */
+  public int copyBytes(int colIndex, byte[] dst, int dstOffset) {
+    int length = length(colIndex);
+    if (length <= 0) return 0;
+    int prevPosition = buf.position();
+    buf.position(offsets[colIndex]);
+    buf.get(dst, dstOffset, length);
+    buf.position(prevPosition);
+    return length;
+  }
+
+  /** The column's raw bytes decoded as a UTF-8 string or null if the value is null */
+  public @Nullable String getString(int colIndex) {
+    int length = length(colIndex);
+    if (length == -1) return null;
+    int prevPosition = buf.position(), prevLimit = buf.limit();
+    buf.limit(offsets[colIndex] + length).position(offsets[colIndex]);
+    try {
+      return Util.stringFromByteBuffer(buf);
+    } finally {
+      buf.limit(prevLimit).position(prevPosition);
+    }
+  }
+
+  /** The column as an int, parsed in place for text format. Fails if null or not an integer that fits. */
+  public int getInt(int colIndex) {
+    long ret = getLong(colIndex);
+    if (ret < Integer.MIN_VALUE || ret > Integer.MAX_VALUE)
+      throw new NumberFormatException("Value out of int range: " + ret);
+    return (int) ret;
+  }
+
+  /** The column as a long, parsed in place for text format. Fails if null or not an integer. */
+  public long getLong(int colIndex) {
+    int length = notNullLength(colIndex);
+    int offset = offsets[colIndex];
+    if (!isTextFormat(colIndex)) {
+      switch (length) {
+        case 2: return buf.getShort(offset);
+        case 4: return buf.getInt(offset);
+        case 8: return buf.getLong(offset);
+        default: throw new NumberFormatException("Unexpected binary integer length: " + length);
+      }
+    }
+    boolean negative = length > 0 && buf.get(offset) == '-';
+    int start = negative ? 1 : 0;
+    if (length == start) throw new NumberFormatException("Empty integer");
+    // Accumulate negatively so the min value doesn't overflow
+    long ret = 0;
+    for (int i = start; i < length; i++) {
+      int digit = buf.get(offset + i) - '0';
+      if (digit < 0 || digit > 9 || ret < (Long.MIN_VALUE + digit) / 10)
+        throw new NumberFormatException("Invalid integer: " + getString(colIndex));
+      ret = ret * 10 - digit;
+    }
+    if (!negative) {
+      if (ret == Long.MIN_VALUE) throw new NumberFormatException("Invalid integer: " + getString(colIndex));
+      ret = -ret;
+    }
+    return ret;
+  }
+
+  /** The column as a double. Fails if null or not a number. */
+  public double getDouble(int colIndex) {
+    int length = notNullLength(colIndex);
+    if (isTextFormat(colIndex)) return Double.parseDouble(getString(colIndex));
+    switch (length) {
+      case 4: return buf.getFloat(offsets[colIndex]);
+      case 8: return buf.getDouble(offsets[colIndex]);
+      default: throw new NumberFormatException("Unexpected binary float length: " + length);
+    }
+  }
+
+  /** The column as a boolean. Fails if null. */
+  public boolean getBoolean(int colIndex) {
+    notNullLength(colIndex);
+    byte first = buf.get(offsets[colIndex]);
+    return isTextFormat(colIndex) ? first == 't' : first != 0;
+  }
+
+  /** Shortcut for {@link #get(RowReader, int, Class)} using {@link RowReader#DEFAULT} */
+  public <T> @Nullable T get(int colIndex, Class<T> typ) { return get(RowReader.DEFAULT, colIndex, typ); }
+
+  /** Convert the column with the reader like {@link RowReader#get(QueryMessage.Row, int, Class)}, copying its bytes */
+  public <T> @Nullable T get(RowReader reader, int colIndex, Class<T> typ) {
+    checkIndex(colIndex);
+    // No meta data means we use the unspecified type
+    QueryMessage.RowMeta.Column col;
+    if (meta != null) col = meta.columns[colIndex];
+    else col = new QueryMessage.RowMeta.Column(colIndex, "", 0, (short) 0, DataType.UNSPECIFIED, (short) 0, 0, true);
+    return reader.get(col, getBytes(colIndex), typ);
+  }
+
+  /** Copy this row out of the buffer so it can be kept */
+  public QueryMessage.Row toRow() {
+    byte[]@Nullable [] raw = new byte[size][];
+    for (int i = 0; i < size; i++) raw[i] = getBytes(i);
+    return new QueryMessage.Row(queryIndex, meta, raw);
+  }
+
+  protected void checkIndex(int colIndex) {
+    if (colIndex < 0 || colIndex >= size) throw new DriverException.ColumnNotPresent("No column at index " + colIndex);
+  }
+
+  protected int notNullLength(int colIndex) {
+    int length = length(colIndex);
+    if (length == -1) throw new NullPointerException("Value at column " + colIndex + " is null");
+    return length;
+  }
+
+}
@@ -0,0 +1,133 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed set of event loops, each a thread with its own {@link Selector}, used by
+ * {@link ConnectionIo.SelectorSocketChannel}. Each connection is pinned to one loop so all of its IO and the future
+ * completions from it happen on that loop's thread.
+ */
+public class SelectorGroup implements AutoCloseable {
+  protected static final Logger log = Logger.getLogger(SelectorGroup.class.getName());
+
+  protected static @Nullable SelectorGroup defaultGroup;
+
+  /** The shared group with one loop per available processor, created on first use */
+  public static synchronized SelectorGroup getDefault() {
+    if (defaultGroup == null) defaultGroup = new SelectorGroup(Runtime.getRuntime().availableProcessors());
+    return defaultGroup;
+  }
+
+  protected final Loop[] loops;
+  protected final AtomicInteger nextLoop = new AtomicInteger();
+
+  /** Create and start the given number of loops on daemon threads */
+  public SelectorGroup(int loopCount) {
+    if (loopCount < 1) throw new IllegalArgumentException("Must have at least one loop");
+    loops = new Loop[loopCount];
+    for (int i = 0; i < loopCount; i++) {
+      try {
+        loops[i] = new Loop(Selector.open(), "pgnio-selector-" + i);
+      } catch (IOException e) { throw new RuntimeException(e); }
+      loops[i].thread.start();
+    }
+  }
+
+  /** Get the next loop to pin a connection to, round-robin */
+  public Loop nextLoop() { return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)]; }
+
+  /** Stop all loops, closing every connection still on them */
+  @Override
+  public void close() {
+    for (Loop loop : loops) loop.close();
+  }
+
+  /** A single event loop thread */
+  public static class Loop implements Runnable {
+    /** Completions run inline up to this depth before the rest are deferred to unwind the stack */
+    protected static final int MAX_INLINE_DEPTH = 16;
+
+    protected final Selector selector;
+    protected final Thread thread;
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    protected volatile boolean closed;
+    protected int inlineDepth;
+
+    protected Loop(Selector selector, String threadName) {
+      this.selector = selector;
+      thread = new Thread(this, threadName);
+      thread.setDaemon(true);
+    }
+
+    /** Whether the current thread is this loop's thread */
+    public boolean inLoop() { return Thread.currentThread() == thread; }
+
+    /** Run the task now if on the loop thread or queue it to run there otherwise */
+    public void execute(Runnable task) {
+      if (inLoop() && inlineDepth < MAX_INLINE_DEPTH) {
+        inlineDepth++;
+        try {
+          task.run();
+        } finally {
+          inlineDepth--;
+        }
+      } else {
+        tasks.add(task);
+        if (!inLoop()) selector.wakeup();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (!closed) {
+        try {
+          long nextDeadline = expireTimeouts();
+          if (!tasks.isEmpty()) selector.selectNow();
+          else if (nextDeadline == Long.MAX_VALUE) selector.select();
+          else selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextDeadline - System.nanoTime())));
+          for (SelectionKey key : selector.selectedKeys()) {
+            if (key.isValid()) ((ConnectionIo.SelectorSocketChannel) key.attachment()).ready(key.readyOps());
+          }
+          selector.selectedKeys().clear();
+          Runnable task;
+          while ((task = tasks.poll()) != null) task.run();
+        } catch (Throwable e) {
+          log.log(Level.WARNING, "Unexpected selector loop error", e);
+        }
+      }
+      for (SelectionKey key : new ArrayList<>(selector.keys()))
+        ((ConnectionIo.SelectorSocketChannel) key.attachment()).close();
+      try {
+        selector.close();
+      } catch (IOException e) { log.log(Level.WARNING, "Failed closing selector", e); }
+    }
+
+    /** Fail all pending operations past their deadline and return the next deadline or max long if none */
+    protected long expireTimeouts() {
+      long now = System.nanoTime();
+      long next = Long.MAX_VALUE;
+      // Copied since completing an expired future can register or cancel keys
+      for (SelectionKey key : new ArrayList<>(selector.keys())) {
+        ConnectionIo.SelectorSocketChannel io = (ConnectionIo.SelectorSocketChannel) key.attachment();
+        if (key.isValid()) next = Math.min(next, io.expire(now));
+      }
+      return next;
+    }
+
+    protected void close() {
+      closed = true;
+      selector.wakeup();
+    }
+  }
+}
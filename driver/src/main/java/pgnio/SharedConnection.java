@@ -0,0 +1,129 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread-safe connection that can be shared by many callers at once. Queries from any thread are put on a single
+ * {@link QueryPipelineConnection} so they do not wait on each other's results. While one write is in progress, new
+ * queries wait and then all go out together in the next write. Since each query is synced on its own, a failing query
+ * only fails its own future. Transactions are not supported since queries from different callers would be mixed in;
+ * use {@link ConnectionPool} for those. Once done, {@link #terminate()} must be called to close the connection.
+ */
+public class SharedConnection implements AutoCloseable {
+  protected static final Logger log = Logger.getLogger(SharedConnection.class.getName());
+
+  /** Connect and auth a new connection to share */
+  public static CompletableFuture<SharedConnection> connect(Config config) {
+    return Connection.authed(config).thenCompose(conn ->
+        conn.pipeline().thenApply(pipeline -> new SharedConnection(conn, pipeline)));
+  }
+
+  protected final QueryReadyConnection.AutoCommit conn;
+  protected final QueryPipelineConnection<QueryReadyConnection.AutoCommit> pipeline;
+  /** Queries waiting for the current write to complete. Guarded by this. */
+  protected final List<PendingQuery<?>> waiting = new ArrayList<>();
+  /** Whether a write is in progress. Guarded by this. */
+  protected boolean writing;
+  /** Guarded by this. */
+  protected boolean terminated;
+
+  protected SharedConnection(QueryReadyConnection.AutoCommit conn,
+      QueryPipelineConnection<QueryReadyConnection.AutoCommit> pipeline) {
+    this.conn = conn;
+    this.pipeline = pipeline;
+  }
+
+  /** Whether the underlying socket is seen as closed */
+  public boolean isOpen() { return conn.isOpen(); }
+
+  /** See {@link QueryPipelineConnection#query(Function, String, Object...)} */
+  public <R> CompletableFuture<R> query(
+      Function<QueryResultConnection<QueryPipelineConnection<QueryReadyConnection.AutoCommit>>,
+          CompletableFuture<R>> handler, String query, Object... params) {
+    PendingQuery<R> pending = new PendingQuery<>(handler, query, params);
+    synchronized (this) {
+      if (terminated) throw new IllegalStateException("Connection terminated");
+      waiting.add(pending);
+      if (!writing) {
+        writing = true;
+        writeWaiting();
+      }
+    }
+    return pending.result;
+  }
+
+  /** {@link #query(Function, String, Object...)} + {@link QueryResultConnection#collectRows()} */
+  public CompletableFuture<List<QueryMessage.Row>> queryRows(String query, Object... params) {
+    return query(QueryResultConnection::collectRows, query, params);
+  }
+
+  /** {@link #query(Function, String, Object...)} + {@link QueryResultConnection#collectRowCount()} */
+  @SuppressWarnings({"return.type.incompatible", "methodref.return.invalid"})
+  public CompletableFuture<@Nullable Long> queryRowCount(String query, Object... params) {
+    return query(QueryResultConnection::collectRowCount, query, params);
+  }
+
+  /** {@link #query(Function, String, Object...)} ignoring results */
+  public CompletableFuture<Void> queryExec(String query, Object... params) {
+    return query(__ -> CompletableFuture.completedFuture(null), query, params);
+  }
+
+  /** Put all waiting queries on the pipeline and flush, repeating after the write if more are waiting by then */
+  protected synchronized void writeWaiting() {
+    if (waiting.isEmpty()) {
+      writing = false;
+      return;
+    }
+    log.log(Level.FINER, "Writing {0} shared queries", waiting.size());
+    waiting.forEach(this::addToPipeline);
+    waiting.clear();
+    pipeline.flush().whenComplete((__, ___) -> writeWaiting());
+  }
+
+  protected <R> void addToPipeline(PendingQuery<R> pending) {
+    pipeline.query(pending.handler, pending.query, pending.params).whenComplete((value, ex) -> {
+      if (ex != null) pending.result.completeExceptionally(ex);
+      else pending.result.complete(value);
+    });
+  }
+
+  /** Calls {@link #terminate()} and waits for it to complete */
+  @Override
+  public void close() throws ExecutionException, InterruptedException { terminate().get(); }
+
+  /**
+   * Stop accepting queries, wait for the results of those already given, and then terminate the underlying connection
+   */
+  public synchronized CompletableFuture<Void> terminate() {
+    if (terminated) throw new IllegalStateException("Connection already terminated");
+    terminated = true;
+    // Anything still waiting goes out with the final flush
+    waiting.forEach(this::addToPipeline);
+    waiting.clear();
+    return conn.terminated(pipeline.done().thenApply(__ -> null));
+  }
+
+  /** A query waiting to be put on the pipeline */
+  protected static class PendingQuery<R> {
+    protected final Function<QueryResultConnection<QueryPipelineConnection<QueryReadyConnection.AutoCommit>>,
+        CompletableFuture<R>> handler;
+    protected final String query;
+    protected final Object[] params;
+    protected final CompletableFuture<R> result = new CompletableFuture<>();
+
+    protected PendingQuery(Function<QueryResultConnection<QueryPipelineConnection<QueryReadyConnection.AutoCommit>>,
+        CompletableFuture<R>> handler, String query, Object[] params) {
+      this.handler = handler;
+      this.query = query;
+      this.params = params;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rows of a result collected by {@link QueryResultConnection#collectRows(long)} with a heap budget. Rows are kept on
+ * the heap as {@link QueryMessage.Row}s until their estimated size reaches the budget, then every row after is written
+ * to a temp file as its raw data row body prefixed by its length. Once collected, the file is memory mapped and
+ * iterating decodes spilled rows from it one at a time, so only the rows being used are on the heap. Iteration is in
+ * result order and can be done any number of times, concurrently too. {@link #close()} deletes the file.
+ */
+public class SpillingRows implements Iterable<QueryMessage.Row>, Closeable {
+  private static final Logger log = Logger.getLogger(SpillingRows.class.getName());
+  /** The most bytes mapped in a single buffer, spilled rows never span two */
+  protected static final int SEGMENT_SIZE = 1 << 30;
+
+  /** The estimated heap bytes of rows to keep before spilling */
+  public final long maxHeapBytes;
+  protected final @Nullable String spillDirectory;
+  protected final List<QueryMessage.Row> heapRows = new ArrayList<>();
+  protected long heapBytes;
+  protected int queryIndex;
+  protected QueryMessage.@Nullable RowMeta meta;
+  protected @Nullable Path spillFile;
+  protected @Nullable FileChannel spillChannel;
+  protected @Nullable ByteBuffer spillBuf;
+  protected long spillSize;
+  protected long spilledRowCount;
+  protected final List<Long> segmentStarts = new ArrayList<>();
+  protected List<ByteBuffer> segments = Collections.emptyList();
+
+  /** Create empty rows, spilling to a temp file in the directory or the default temp directory if null */
+  protected SpillingRows(long maxHeapBytes, @Nullable String spillDirectory) {
+    this.maxHeapBytes = maxHeapBytes;
+    this.spillDirectory = spillDirectory;
+  }
+
+  /** The number of rows */
+  public long size() { return heapRows.size() + spilledRowCount; }
+
+  /** The number of rows kept on the heap */
+  public int getHeapRowCount() { return heapRows.size(); }
+
+  /** The number of rows written to the spill file */
+  public long getSpilledRowCount() { return spilledRowCount; }
+
+  /** The spill file or null if nothing was spilled */
+  public @Nullable Path getSpillFile() { return spillFile; }
+
+  /** Add the row at the view, either copying it to the heap or writing it to the spill file */
+  protected void add(RowView view) throws IOException {
+    queryIndex = view.getQueryIndex();
+    meta = view.getMeta();
+    if (spillFile == null) {
+      long bytes = estimateHeapBytes(view);
+      if (heapBytes + bytes <= maxHeapBytes) {
+        heapRows.add(view.toRow());
+        heapBytes += bytes;
+        return;
+      }
+      Path dir = spillDirectory == null ? null : Paths.get(spillDirectory);
+      spillFile = dir == null ? Files.createTempFile("pgnio-spill", ".bin") :
+          Files.createTempFile(dir, "pgnio-spill", ".bin");
+      log.log(Level.FINE, "Spilling rows past {0} heap bytes to {1}", new Object[] { maxHeapBytes, spillFile });
+      spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+      spillBuf = ByteBuffer.allocate(64 * 1024);
+      segmentStarts.add(0L);
+    }
+    ByteBuffer body = view.body();
+    int recordSize = 4 + body.remaining();
+    if (spillSize + recordSize - segmentStarts.get(segmentStarts.size() - 1) > SEGMENT_SIZE)
+      segmentStarts.add(spillSize);
+    ByteBuffer buf = spillBuf;
+    FileChannel channel = spillChannel;
+    if (buf.remaining() < 4) flush(buf, channel);
+    buf.putInt(body.remaining());
+    if (body.remaining() > buf.remaining()) {
+      flush(buf, channel);
+      while (body.hasRemaining()) channel.write(body);
+    } else {
+      buf.put(body);
+    }
+    spillSize += recordSize;
+    spilledRowCount++;
+  }
+
+  /** Approximate heap bytes of the row once copied to a {@link QueryMessage.Row} */
+  protected long estimateHeapBytes(RowView view) {
+    long ret = 48 + 8L * view.size();
+    for (int i = 0; i < view.size(); i++) {
+      int length = view.length(i);
+      if (length >= 0) ret += 16 + length;
+    }
+    return ret;
+  }
+
+  protected void flush(ByteBuffer buf, FileChannel channel) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) channel.write(buf);
+    buf.clear();
+  }
+
+  /** Finish writing the spill file if any and map it for reading */
+  protected void finish() throws IOException {
+    FileChannel channel = spillChannel;
+    if (channel == null) return;
+    flush(spillBuf, channel);
+    spillBuf = null;
+    List<ByteBuffer> segments = new ArrayList<>(segmentStarts.size());
+    for (int i = 0; i < segmentStarts.size(); i++) {
+      long start = segmentStarts.get(i);
+      long end = i + 1 < segmentStarts.size() ? segmentStarts.get(i + 1) : spillSize;
+      segments.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+    this.segments = segments;
+    channel.close();
+    spillChannel = null;
+  }
+
+  @Override
+  public Iterator<QueryMessage.Row> iterator() {
+    Iterator<QueryMessage.Row> heap = heapRows.iterator();
+    Iterator<ByteBuffer> segments = this.segments.iterator();
+    return new Iterator<QueryMessage.Row>() {
+      protected @Nullable ByteBuffer segment;
+
+      @Override
+      public boolean hasNext() {
+        if (heap.hasNext()) return true;
+        while (segment == null || !segment.hasRemaining()) {
+          if (!segments.hasNext()) return false;
+          segment = segments.next().duplicate();
+        }
+        return true;
+      }
+
+      @Override
+      public QueryMessage.Row next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        if (heap.hasNext()) return heap.next();
+        return decode(segment);
+      }
+    };
+  }
+
+  /** Decode the spilled row at the buffer's position, moving it to the next row */
+  protected QueryMessage.Row decode(ByteBuffer buf) {
+    int end = buf.getInt();
+    end += buf.position();
+    byte[]@Nullable [] raw = new byte[buf.getShort()][];
+    for (int i = 0; i < raw.length; i++) {
+      int length = buf.getInt();
+      if (length == -1) continue;
+      raw[i] = new byte[length];
+      buf.get(raw[i]);
+    }
+    buf.position(end);
+    return new QueryMessage.Row(queryIndex, meta, raw);
+  }
+
+  /** Release the rows and delete the spill file if any. Iterators must not be used after this. */
+  @Override
+  public void close() {
+    heapRows.clear();
+    segments = Collections.emptyList();
+    try {
+      if (spillChannel != null) spillChannel.close();
+      if (spillFile != null) Files.deleteIfExists(spillFile);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Unable to delete spill file", e);
+    }
+    spillChannel = null;
+    spillFile = null;
+  }
+}
@@ -0,0 +1,109 @@
+package pgnio;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Blocking facade over a {@link QueryReadyConnection}. Each call waits for its result on the calling thread. This is
+ * best paired with {@link ConnectionIo.BlockingSocket} as the {@link Config#ioConnector} (see
+ * {@link #blockingConfig(Config)}) so the IO happens on the calling thread too, which makes it a good fit for virtual
+ * threads. Errors from the server are thrown as-is, other checked errors are wrapped in {@link RuntimeException}. Like
+ * other connections, this is not thread safe.
+ */
+public class SyncConnection implements AutoCloseable {
+  /** Set the {@link Config#ioConnector} of the given config to {@link ConnectionIo.BlockingSocket} and return it */
+  public static Config blockingConfig(Config config) {
+    return config.ioConnector(ConnectionIo.BlockingSocket::connect);
+  }
+
+  /** Connect and auth using the given config */
+  public static SyncConnection connect(Config config) {
+    return new SyncConnection(await(Connection.authed(config)));
+  }
+
+  /** Wait for the future, unwrapping the execution exception */
+  public static <T> T await(CompletableFuture<T> fut) {
+    try {
+      return fut.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  protected final QueryReadyConnection<?> conn;
+
+  /** Wrap the given connection which must not be used directly while this is in use */
+  public SyncConnection(QueryReadyConnection<?> conn) { this.conn = conn; }
+
+  /** The underlying connection */
+  public QueryReadyConnection<?> getConnection() { return conn; }
+
+  /** Whether the underlying socket is seen as closed */
+  public boolean isOpen() { return conn.isOpen(); }
+
+  /** @see QueryReadyConnection#simpleQueryRows(String) */
+  public List<QueryMessage.Row> simpleQueryRows(String query) { return await(conn.simpleQueryRows(query)); }
+
+  /** @see QueryReadyConnection#simpleQueryRowCount(String) */
+  public @Nullable Long simpleQueryRowCount(String query) { return await(conn.simpleQueryRowCount(query)); }
+
+  /** @see QueryReadyConnection#simpleQueryExec(String) */
+  public void simpleQueryExec(String query) { await(conn.simpleQueryExec(query)); }
+
+  /** @see QueryReadyConnection#preparedQueryRows(String, Object...) */
+  public List<QueryMessage.Row> preparedQueryRows(String query, Object... params) {
+    return await(conn.preparedQueryRows(query, params));
+  }
+
+  /** @see QueryReadyConnection#preparedQueryRowCount(String, Object...) */
+  public @Nullable Long preparedQueryRowCount(String query, Object... params) {
+    return await(conn.preparedQueryRowCount(query, params));
+  }
+
+  /** @see QueryReadyConnection#preparedQueryExec(String, Object...) */
+  public void preparedQueryExec(String query, Object... params) { await(conn.preparedQueryExec(query, params)); }
+
+  /**
+   * {@link QueryReadyConnection#preparedQuery(String, Object...)} + {@link QueryResultConnection#forEachRow(Consumer)}
+   * + {@link QueryResultConnection#done()}. Rows are given to the consumer as they arrive instead of collected.
+   */
+  public void preparedQueryForEachRow(Consumer<QueryMessage.Row> fn, String query, Object... params) {
+    await(conn.preparedQuery(query, params).thenCompose(res -> res.forEachRow(fn).thenCompose(__ -> res.done())));
+  }
+
+  /**
+   * Run the function in a transaction, committing if it returns and rolling back if it throws. The connection given to
+   * the function must be used instead of this one until it returns. Nested calls use savepoints.
+   */
+  public <T> T transaction(Function<SyncConnection, T> fn) { return transaction(conn, fn); }
+
+  protected <C extends QueryReadyConnection<C>, T> T transaction(QueryReadyConnection<C> conn,
+      Function<SyncConnection, T> fn) {
+    QueryReadyConnection.InTransaction<C> txConn = await(conn.beginTransaction());
+    T ret;
+    try {
+      ret = fn.apply(new SyncConnection(txConn));
+    } catch (RuntimeException | Error e) {
+      try {
+        await(txConn.rollbackTransaction());
+      } catch (RuntimeException rollbackEx) { e.addSuppressed(rollbackEx); }
+      throw e;
+    }
+    await(txConn.commitTransaction());
+    return ret;
+  }
+
+  /** Terminate the underlying connection */
+  @Override
+  public void close() { await(conn.terminate()); }
+}
@@ -0,0 +1,43 @@
+package pgnio;
+
+import java.util.function.Function;
+
+/**
+ * Blocking facade over a {@link ConnectionPool} handing out {@link SyncConnection}s. See {@link SyncConnection} for
+ * how to make the IO blocking too. Unlike a single connection, this is thread safe.
+ */
+public class SyncConnectionPool implements AutoCloseable {
+  protected final ConnectionPool pool;
+
+  /** Create a new {@link ConnectionPool} with the config and wrap it */
+  public SyncConnectionPool(Config config) { this(new ConnectionPool(config)); }
+
+  /** Wrap the given pool */
+  public SyncConnectionPool(ConnectionPool pool) { this.pool = pool; }
+
+  /** The underlying pool */
+  public ConnectionPool getPool() { return pool; }
+
+  /**
+   * Borrow a connection, run the function with it, and return the connection to the pool even if the function throws.
+   * The connection must not be used after the function returns.
+   */
+  public <T> T withConnection(Function<SyncConnection, T> fn) {
+    QueryReadyConnection.AutoCommit conn;
+    try {
+      conn = SyncConnection.await(pool.borrowConnection());
+    } catch (RuntimeException e) {
+      pool.returnConnection(null);
+      throw e;
+    }
+    try {
+      return fn.apply(new SyncConnection(conn));
+    } finally {
+      pool.returnConnection(conn);
+    }
+  }
+
+  /** Terminate all connections in the pool */
+  @Override
+  public void close() { SyncConnection.await(pool.terminateAll()); }
+}
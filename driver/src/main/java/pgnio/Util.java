@@ -86,6 +86,19 @@ public class Util {
     };
   }
 
+  /** Whether any of the buffers have bytes remaining */
+  public static boolean hasRemaining(ByteBuffer[] bufs) {
+    for (ByteBuffer buf : bufs) if (buf.hasRemaining()) return true;
+    return false;
+  }
+
+  /** The total bytes remaining across all of the buffers */
+  public static long remaining(ByteBuffer[] bufs) {
+    long ret = 0;
+    for (ByteBuffer buf : bufs) ret += buf.remaining();
+    return ret;
+  }
+
   static final char[] hexArray = "0123456789abcdef".toCharArray();
 
   /** Convert a single byte to a 2-char hex string */
@@ -0,0 +1,69 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferAllocatorTest extends TestBase {
+  @Test
+  public void testSizeClasses() {
+    BufferAllocator alloc = new BufferAllocator(1024, 8192, 8192, 2, 16384);
+    Assert.assertEquals(1024, alloc.allocate(1, false).capacity());
+    Assert.assertEquals(1024, alloc.allocate(1024, false).capacity());
+    Assert.assertEquals(2048, alloc.allocate(1025, false).capacity());
+    Assert.assertEquals(8192, alloc.allocate(8192, false).capacity());
+    // Too large to pool is exact
+    Assert.assertEquals(8193, alloc.allocate(8193, false).capacity());
+  }
+
+  @Test
+  public void testReuseAndDirectBytes() {
+    BufferAllocator alloc = new BufferAllocator(1024, 8192, 2048, 1, 4096);
+    ByteBuffer small = alloc.allocate(2000, true);
+    ByteBuffer large = alloc.allocate(4000, true);
+    Assert.assertEquals(2048 + 4096, alloc.getAllocatedDirectBytes());
+    small.put((byte) 1);
+    alloc.release(small);
+    alloc.release(large);
+    Assert.assertEquals(2048 + 4096, alloc.getPooledDirectBytes());
+    ByteBuffer reused = alloc.allocate(1500, true);
+    Assert.assertSame(small, reused);
+    Assert.assertEquals(0, reused.position());
+    Assert.assertSame(large, alloc.allocate(3000, true));
+    Assert.assertEquals(0, alloc.getPooledDirectBytes());
+    // Heap buffers of the same size are separate
+    Assert.assertNotSame(reused, alloc.allocate(1500, false));
+    // Past the shared pool max, buffers are not kept
+    ByteBuffer first = alloc.allocate(4096, true);
+    ByteBuffer second = alloc.allocate(4096, true);
+    alloc.release(first);
+    alloc.release(second);
+    Assert.assertEquals(4096, alloc.getPooledDirectBytes());
+  }
+
+  @Test
+  public void testWriterGrowsAndShrinks() {
+    BufferAllocator alloc = new BufferAllocator(1024, 1024 * 1024, 1024 * 1024, 4, 1024 * 1024);
+    BufWriter.Simple<?> writer = new BufWriter.Simple<>(alloc, false, 1024);
+    byte[] bytes = new byte[5000];
+    bytes[4999] = 5;
+    writer.writeInt(12).writeBytes(bytes);
+    Assert.assertEquals(8192, writer.buf.capacity());
+    Assert.assertEquals(12, writer.buf.getInt(0));
+    Assert.assertEquals(5, writer.buf.get(5003));
+    writer.shrinkBuffer(1024);
+    Assert.assertEquals(1024, writer.buf.capacity());
+    Assert.assertEquals(0, writer.buf.position());
+  }
+
+  @Test
+  public void testWriterGrowsByStep() {
+    BufferAllocator alloc = new BufferAllocator(1024, 1024 * 1024, 1024 * 1024, 4, 1024 * 1024);
+    BufWriter.Simple<?> writer = new BufWriter.Simple<>(alloc, false, 1000, 1024);
+    writer.writeBytes(new byte[5000]);
+    // Rounded up to the next step past what is needed, then up to the allocator's size class
+    Assert.assertEquals(8192, writer.buf.capacity());
+    Assert.assertEquals(5000, writer.buf.position());
+  }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class CancelTest extends DbTestBase {
   @Test
@@ -25,4 +26,53 @@ public class CancelTest extends DbTestBase {
       Assert.assertEquals("57014", serverErr.notice.getCode());
     }
   }
+
+  @Test
+  public void testDeadline() {
+    withConnectionSync(conn ->
+        conn.withDeadline(200, TimeUnit.MILLISECONDS, c -> c.simpleQueryRows("SELECT 'test', pg_sleep(10)")).
+            handle((__, ex) -> {
+              Assert.assertTrue(ex.getCause() instanceof DriverException.DeadlineExceeded);
+              // Cancelled by the server, not just abandoned
+              Throwable serverErr = ex.getCause().getCause();
+              Assert.assertEquals("57014", ((DriverException.FromServer) serverErr).notice.getCode());
+              return conn;
+            }).
+            // Still usable after, and a query that finishes in time is untouched
+            thenCompose(Connection.Started::fullReset).
+            thenCompose(c -> c.withDeadline(5, TimeUnit.SECONDS, c2 -> c2.simpleQueryRows("SELECT 'test'"))).
+            thenAccept(rows -> Assert.assertEquals("test", RowReader.DEFAULT.get(rows.get(0), 0, String.class))));
+  }
+
+  @Test
+  public void testDeadlineWithBlockingIo() throws Exception {
+    // The cancel connects and writes in place here, so it must not be on the timer thread
+    QueryReadyConnection.AutoCommit conn = Connection.authed(SyncConnection.blockingConfig(newDefaultConfig())).get();
+    try {
+      conn.withDeadline(200, TimeUnit.MILLISECONDS, c -> c.simpleQueryRows("SELECT 'test', pg_sleep(10)")).get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof DriverException.DeadlineExceeded);
+      Throwable serverErr = e.getCause().getCause();
+      Assert.assertEquals("57014", ((DriverException.FromServer) serverErr).notice.getCode());
+    }
+    Assert.assertEquals(1, conn.fullReset().get().simpleQueryRows("SELECT 1").get().size());
+    conn.terminate().get();
+  }
+
+  @Test
+  public void testDeadlineGivesUpWhenNotUnwound() throws Exception {
+    // A future the cancel can never complete stands in for a stuck server
+    Config conf = newDefaultConfig().deadlineCancelGrace(300, TimeUnit.MILLISECONDS);
+    QueryReadyConnection.AutoCommit conn = Connection.authed(conf).get();
+    long start = System.nanoTime();
+    try {
+      conn.withDeadline(100, TimeUnit.MILLISECONDS, c -> new CompletableFuture<Void>()).get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof DriverException.DeadlineExceeded);
+    }
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+    Assert.assertFalse(conn.isOpen());
+  }
 }
@@ -0,0 +1,30 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DeadlineTimerTest extends TestBase {
+  @Test
+  public void testExpireAndCancel() throws Exception {
+    // Small wheel so the long one goes around more than once
+    DeadlineTimer timer = new DeadlineTimer(5, TimeUnit.MILLISECONDS, 8);
+    CountDownLatch expired = new CountDownLatch(2);
+    AtomicBoolean cancelledRan = new AtomicBoolean();
+    long start = System.nanoTime();
+    DeadlineTimer.Timeout shortTimeout = timer.schedule(expired::countDown, 20, TimeUnit.MILLISECONDS);
+    DeadlineTimer.Timeout longTimeout = timer.schedule(expired::countDown, 150, TimeUnit.MILLISECONDS);
+    DeadlineTimer.Timeout cancelled = timer.schedule(() -> cancelledRan.set(true), 30, TimeUnit.MILLISECONDS);
+    Assert.assertTrue(cancelled.cancel());
+    Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    Assert.assertTrue(shortTimeout.isExpired());
+    Assert.assertTrue(longTimeout.isExpired());
+    Assert.assertFalse(longTimeout.cancel());
+    Assert.assertFalse(cancelled.isExpired());
+    Assert.assertFalse(cancelledRan.get());
+  }
+}
@@ -0,0 +1,72 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HostResolverTest extends TestBase {
+  @Test
+  public void testCache() throws Exception {
+    AtomicInteger lookups = new AtomicInteger();
+    Executor executor = r -> { lookups.incrementAndGet(); new Thread(r).start(); };
+    HostResolver resolver = new HostResolver(executor, 1, TimeUnit.HOURS, 250, TimeUnit.MILLISECONDS);
+    List<InetAddress> first = resolver.resolve("127.0.0.1").get();
+    Assert.assertEquals(first, resolver.resolve("127.0.0.1").get());
+    Assert.assertEquals(1, lookups.get());
+    resolver.invalidate("127.0.0.1");
+    resolver.resolve("127.0.0.1").get();
+    Assert.assertEquals(2, lookups.get());
+    // Nothing is reused with no TTL
+    resolver = new HostResolver(executor, 0, TimeUnit.SECONDS, 250, TimeUnit.MILLISECONDS);
+    resolver.resolve("127.0.0.1").get();
+    resolver.resolve("127.0.0.1").get();
+    Assert.assertEquals(4, lookups.get());
+  }
+
+  @Test
+  public void testConnectAttempts() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+      InetAddress unreachable = InetAddress.getByName("192.0.2.1");
+      HostResolver resolver = new HostResolver(Runnable::run, 1, TimeUnit.HOURS, 50, TimeUnit.MILLISECONDS) {
+        @Override
+        public CompletableFuture<List<InetAddress>> resolve(String hostname) {
+          return CompletableFuture.completedFuture(Arrays.asList(unreachable, server.getInetAddress()));
+        }
+      };
+      Config config = new Config().hostname("test").port(server.getLocalPort());
+      // The first attempt hangs so the second is started after the delay and wins
+      CompletableFuture<ConnectionIo.AsyncSocketChannel> hung = new CompletableFuture<>();
+      ConnectionIo.AsyncSocketChannel io = resolver.connect(config, addr ->
+          addr.getAddress().equals(unreachable) ? hung : ConnectionIo.AsyncSocketChannel.connect(addr)).get();
+      Assert.assertTrue(io.isOpen());
+      // A late winner is closed
+      ConnectionIo.AsyncSocketChannel late = ConnectionIo.AsyncSocketChannel.connect(
+          new InetSocketAddress(server.getInetAddress(), server.getLocalPort())).get();
+      hung.complete(late);
+      Assert.assertFalse(late.isOpen());
+      io.close().get();
+      // All failures fail the whole thing
+      try {
+        resolver.connect(config, addr -> {
+          CompletableFuture<ConnectionIo.AsyncSocketChannel> ret = new CompletableFuture<>();
+          ret.completeExceptionally(new IllegalStateException("Failed " + addr.getAddress()));
+          return ret;
+        }).get();
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertEquals("Failed " + unreachable, e.getCause().getMessage());
+        Assert.assertEquals(1, e.getCause().getSuppressed().length);
+      }
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package pgnio;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/** Rough benchmarks only run when the "pgnio.benchmark" system property is true */
+public class IoBenchmarkTest extends DbTestBase {
+  protected static final int WARMUP_RUNS = 3;
+  protected static final int RUNS = 5;
+
+  @BeforeClass
+  public static void checkEnabled() {
+    Assume.assumeTrue("Benchmarks disabled", Boolean.getBoolean("pgnio.benchmark"));
+  }
+
+  @Test
+  public void benchmarkSelectorVsAsyncChannel() {
+    Config async = newDefaultConfig().ioConnector(ConnectionIo.AsyncSocketChannel::connect);
+    try (SelectorGroup group = new SelectorGroup(1)) {
+      Config selector =
+          newDefaultConfig().ioConnector(ConnectionIo.SelectorSocketChannel::connect).selectorGroup(group);
+      for (Config conf : new Config[] { async, selector }) {
+        String name = conf == async ? "async-channel" : "selector";
+        bench(name + " 2000 round trips", conf, conn -> roundTrips(conn, 2000));
+        bench(name + " 200000 rows", conf, conn -> conn.simpleQueryRows("SELECT generate_series(1, 200000)"));
+        bench(name + " 2000 pipelined", conf, conn -> pipelined(conn, 2000));
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkUnixSocketVsTcp() {
+    // Defaults to where Postgres puts its socket unless configured otherwise
+    String dir = System.getProperty("pgnio.benchmark.unixSocketPath", "/tmp");
+    Assume.assumeTrue("No Unix socket in " + dir, Files.exists(Paths.get(dir, ".s.PGSQL." + newDefaultConfig().port)));
+    try (SelectorGroup group = new SelectorGroup(1)) {
+      Config tcp = newDefaultConfig().ioConnector(ConnectionIo.SelectorSocketChannel::connect).selectorGroup(group);
+      Config unix = newDefaultConfig().unixSocketPath(dir).selectorGroup(group);
+      for (Config conf : new Config[] { tcp, unix }) {
+        String name = conf == tcp ? "tcp-loopback" : "unix-socket";
+        bench(name + " 2000 round trips", conf, conn -> roundTrips(conn, 2000));
+        bench(name + " 2000 prepared round trips", conf, conn -> preparedRoundTrips(conn, 2000));
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkRowAllocations() {
+    // Blocking IO keeps every read on this thread so its allocation counter sees all of them
+    Config conf = newDefaultConfig().ssl(false).ioConnector(ConnectionIo.BlockingSocket::connect);
+    String sql = "SELECT i, i::int8 AS l, i::float8 AS d, 'row ' || i AS s FROM generate_series(1, 200000) i";
+    long[] sum = new long[1];
+    benchAllocations("forEachRow 200000 rows", 200000, conf, conn -> conn.simpleQuery(sql).thenCompose(res ->
+        res.forEachRow(row -> sum[0] += row.raw.length).thenCompose(__ -> res.done())));
+    benchAllocations("forEachRowView 200000 rows", 200000, conf, conn -> conn.simpleQuery(sql).thenCompose(res ->
+        res.forEachRowView(view -> sum[0] += view.getLong(1)).thenCompose(__ -> res.done())));
+    benchAllocations("collectColumnar 200000 rows", 200000, conf, conn -> conn.simpleQuery(sql).thenCompose(res ->
+        res.collectColumnar().thenCompose(__ -> res.done())));
+  }
+
+  protected CompletableFuture<?> roundTrips(QueryReadyConnection.AutoCommit conn, int count) {
+    if (count == 0) return CompletableFuture.completedFuture(null);
+    return conn.simpleQueryRows("SELECT 1").thenCompose(__ -> roundTrips(conn, count - 1));
+  }
+
+  protected CompletableFuture<?> preparedRoundTrips(QueryReadyConnection.AutoCommit conn, int count) {
+    if (count == 0) return CompletableFuture.completedFuture(null);
+    return conn.preparedQueryRows("SELECT $1::int", count).thenCompose(__ -> preparedRoundTrips(conn, count - 1));
+  }
+
+  protected CompletableFuture<?> pipelined(QueryReadyConnection.AutoCommit conn, int count) {
+    return conn.pipeline().thenCompose(pConn -> {
+      List<CompletableFuture<?>> results = new ArrayList<>();
+      for (int i = 0; i < count; i++) results.add(pConn.queryRows("SELECT $1::int", i));
+      return pConn.done().thenCompose(__ -> CompletableFuture.allOf(results.toArray(new CompletableFuture[0])));
+    });
+  }
+
+  /** Run warmups then runs of the function on a single connection and print the average time */
+  protected void bench(String name, Config conf, Function<QueryReadyConnection.AutoCommit, CompletableFuture<?>> fn) {
+    withConnectionSync(conf, conn -> {
+      for (int i = 0; i < WARMUP_RUNS; i++) fn.apply(conn).join();
+      long start = System.nanoTime();
+      for (int i = 0; i < RUNS; i++) fn.apply(conn).join();
+      System.out.println(String.format("%s: %.2f ms", name, (System.nanoTime() - start) / RUNS / 1000000.0));
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  /** Like {@link #bench} but also print the bytes allocated per row by this thread */
+  protected void benchAllocations(String name, int rows, Config conf,
+      Function<QueryReadyConnection.AutoCommit, CompletableFuture<?>> fn) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    withConnectionSync(conf, conn -> {
+      for (int i = 0; i < WARMUP_RUNS; i++) fn.apply(conn).join();
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < RUNS; i++) fn.apply(conn).join();
+      long nanos = System.nanoTime() - start;
+      long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+      System.out.println(String.format("%s: %.2f ms, %.1f bytes/row",
+          name, nanos / RUNS / 1000000.0, bytes / (double) RUNS / rows));
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+}
@@ -0,0 +1,92 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MultiHostTest extends DbTestBase {
+  @Test
+  public void testHostConfigs() {
+    Config conf = new Config().port(6000).hosts("one", "two:6001", "[::1]:6002", "::1", "[::2]");
+    List<Config> hostConfigs = conf.hostConfigs();
+    Assert.assertEquals(5, hostConfigs.size());
+    String[] expected = { "one:6000", "two:6001", "::1:6002", "::1:6000", "::2:6000" };
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(expected[i], hostConfigs.get(i).hostname + ":" + hostConfigs.get(i).port);
+      Assert.assertNull(hostConfigs.get(i).hosts);
+    }
+    // Copies don't change the original
+    Assert.assertEquals("localhost", conf.hostname);
+    Assert.assertNotSame(conf.sslWrapper, hostConfigs.get(0).sslWrapper);
+    // But they share the config's own SSL context and so its session cache
+    Assert.assertSame(conf.defaultSslContext(), hostConfigs.get(1).defaultSslContext());
+    Assert.assertNotSame(conf.defaultSslContext(), new Config().defaultSslContext());
+  }
+
+  @Test
+  public void testTargetSessionAttrs() throws Exception {
+    // A port with nothing listening on it
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) { closedPort = socket.getLocalPort(); }
+    Config conf = newDefaultConfig().hosts("localhost:" + closedPort, "localhost:" + db.conf().dbConf.port);
+    // The embedded DB is a primary
+    for (Config.TargetSessionAttrs attrs : new Config.TargetSessionAttrs[] {
+        Config.TargetSessionAttrs.ANY, Config.TargetSessionAttrs.READ_WRITE, Config.TargetSessionAttrs.PRIMARY,
+        Config.TargetSessionAttrs.PREFER_STANDBY }) {
+      String val = withConnectionSync(conf.copy().targetSessionAttrs(attrs), c ->
+          c.simpleQueryRows("SELECT 'test'").thenApply(rows -> RowReader.DEFAULT.get(rows.get(0), 0, String.class)));
+      Assert.assertEquals("test", val);
+    }
+    try {
+      Connection.authed(conf.copy().targetSessionAttrs(Config.TargetSessionAttrs.STANDBY)).get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof DriverException.NoMatchingHost);
+      // One for the closed port
+      Assert.assertEquals(1, e.getCause().getSuppressed().length);
+    }
+    // Without hosts, read-only work goes to the same pool
+    try (ConnectionPool pool = new ConnectionPool(newDefaultConfig())) {
+      Assert.assertSame(pool, pool.readOnlyPool());
+    }
+    Config poolConf = conf.copy().targetSessionAttrs(Config.TargetSessionAttrs.READ_WRITE);
+    try (ConnectionPool pool = new ConnectionPool(poolConf)) {
+      Assert.assertNotSame(pool, pool.readOnlyPool());
+      Assert.assertEquals(1, pool.withReadOnlyConnection(c -> c.simpleQueryRows("SELECT 1")).get().size());
+      // New connections try the last host alone first
+      Assert.assertEquals(db.conf().dbConf.port, pool.readOnlyPool().lastHostConfig.port);
+    }
+    // With no standby, the primary is only a fallback and is not tried alone to just fail the match again
+    Config preferStandbyConf = conf.copy().targetSessionAttrs(Config.TargetSessionAttrs.PREFER_STANDBY);
+    try (ConnectionPool pool = new ConnectionPool(preferStandbyConf)) {
+      Assert.assertEquals(1, pool.withConnection(c -> c.simpleQueryRows("SELECT 1")).get().size());
+      Assert.assertNull(pool.lastHostConfig);
+    }
+  }
+
+  @Test
+  public void testHostConnectTimeout() throws Exception {
+    // Accepts connections but never answers the startup
+    try (ServerSocket blackhole = new ServerSocket(0)) {
+      Config conf = newDefaultConfig().hostConnectTimeout(500, TimeUnit.MILLISECONDS).
+          hosts("localhost:" + blackhole.getLocalPort(), "localhost:" + db.conf().dbConf.port);
+      // Only falls back to the primary once the host before it has timed out
+      long start = System.nanoTime();
+      String val = withConnectionSync(conf.copy().targetSessionAttrs(Config.TargetSessionAttrs.PREFER_STANDBY), c ->
+          c.simpleQueryRows("SELECT 'test'").thenApply(rows -> RowReader.DEFAULT.get(rows.get(0), 0, String.class)));
+      Assert.assertEquals("test", val);
+      Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 500);
+      try {
+        Connection.authed(conf.copy().targetSessionAttrs(Config.TargetSessionAttrs.STANDBY)).get(5, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof DriverException.NoMatchingHost);
+        Assert.assertTrue(e.getCause().getSuppressed()[0] instanceof DriverException.HostConnectTimeout);
+      }
+    }
+  }
+}
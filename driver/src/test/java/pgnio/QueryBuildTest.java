@@ -3,6 +3,18 @@ package pgnio;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class QueryBuildTest extends DbTestBase {
   @Test
   public void testMultipleBind() {
@@ -104,4 +116,182 @@ public class QueryBuildTest extends DbTestBase {
             thenCompose(conn -> conn.commitTransaction())
     );
   }
+
+  @Test
+  public void testQueuedMessagesOverFlushThreshold() {
+    // A tiny threshold makes the queued bind get written before the sync, along with the parse before it
+    Config conf = newDefaultConfig().writeFlushThreshold(16);
+    char[] chars = new char[1000];
+    Arrays.fill(chars, 'x');
+    String param = new String(chars);
+    withConnectionSync(conf, c ->
+        c.preparedQueryRows("SELECT $1::text AS a, $2::int AS b", param, 5).thenAccept(rows -> {
+          Assert.assertEquals(1, rows.size());
+          Assert.assertEquals(param, RowReader.DEFAULT.get(rows.get(0), "a", String.class));
+          Assert.assertEquals(5, RowReader.DEFAULT.get(rows.get(0), "b", Integer.class).intValue());
+        }).thenCompose(__ -> c.preparedQueryRows("SELECT $1::text AS a", "y")).thenAccept(rows ->
+            Assert.assertEquals("y", RowReader.DEFAULT.get(rows.get(0), "a", String.class)))
+    );
+  }
+
+  @Test
+  public void testLargeBinaryParam() throws Exception {
+    // Larger than the write buffer so it is written from the array itself
+    byte[] bytes = new byte[200000];
+    for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+    String md5 = Util.bytesToHex(MessageDigest.getInstance("MD5").digest(bytes));
+    QueryMessage.Row row = withConnectionSync(c ->
+        c.prepare("SELECT length($1::bytea), md5($1::bytea), $2::text").
+            thenCompose(pConn -> pConn.bindEx(QueryBuildConnection.Prepared.FORMAT_BINARY_ALL,
+                QueryBuildConnection.Prepared.FORMAT_TEXT_ALL, bytes, "after".getBytes(StandardCharsets.UTF_8))).
+            thenCompose(QueryBuildConnection.Bound::describeExecuteAndDone).
+            thenCompose(QueryResultConnection::collectRowsAndDone)).get(0);
+    Assert.assertEquals(200000, RowReader.DEFAULT.get(row, 0, Integer.class).intValue());
+    Assert.assertEquals(md5, RowReader.DEFAULT.get(row, 1, String.class));
+    Assert.assertEquals("after", RowReader.DEFAULT.get(row, 2, String.class));
+  }
+
+  @Test
+  public void testBoundRowPublisher() {
+    // Request 7 at a time with fetches of at most 5, then cancel part way through a second run
+    for (int cancelAt : new int[] { 0, 12 }) {
+      List<Integer> values = new ArrayList<>();
+      CompletableFuture<Boolean> completed = new CompletableFuture<>();
+      withConnectionSync(c ->
+          c.prepare("SELECT * FROM generate_series(1, 50) AS num").
+              thenCompose(pConn -> pConn.bind()).
+              thenCompose(bConn -> bConn.describe()).
+              thenCompose(bConn -> {
+                RowPublisher<QueryReadyConnection.AutoCommit> publisher = bConn.rowPublisher(5);
+                publisher.subscribe(new RowPublisher.Subscriber() {
+                  RowPublisher.Subscription subscription;
+
+                  @Override
+                  public void onSubscribe(RowPublisher.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(7);
+                  }
+
+                  @Override
+                  public void onNext(QueryMessage.Row row) {
+                    values.add(RowReader.DEFAULT.get(row, "num", Integer.class));
+                    if (values.size() == cancelAt) subscription.cancel();
+                    else if (values.size() % 7 == 0) subscription.request(7);
+                  }
+
+                  @Override
+                  public void onError(Throwable ex) { completed.completeExceptionally(ex); }
+
+                  @Override
+                  public void onComplete() { completed.complete(true); }
+                });
+                return publisher.done();
+              }).
+              // Make sure the connection can still be used
+              thenCompose(conn -> conn.simpleQueryRows("SELECT 1")).
+              thenAccept(rows -> Assert.assertEquals(1, rows.size()))
+      );
+      Assert.assertEquals(cancelAt == 0 ? 50 : cancelAt, values.size());
+      for (int i = 0; i < values.size(); i++) Assert.assertEquals(i + 1, values.get(i).intValue());
+      Assert.assertEquals(cancelAt == 0, completed.isDone());
+    }
+  }
+
+  @Test
+  public void testRowPublisherRequestsFromOtherThread() throws Exception {
+    // A row at a time requested from another thread, racing the read loop as it pauses, for a result and a portal
+    String sql = "SELECT * FROM generate_series(1, 200) AS num";
+    for (boolean bound : new boolean[] { false, true }) {
+      List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+      AtomicInteger inOnNext = new AtomicInteger();
+      AtomicBoolean overlapped = new AtomicBoolean();
+      Semaphore signals = new Semaphore(0);
+      CompletableFuture<Boolean> completed = new CompletableFuture<>();
+      RowPublisher.Subscriber subscriber = new RowPublisher.Subscriber() {
+        @Override
+        public void onSubscribe(RowPublisher.Subscription subscription) {
+          Thread requester = new Thread(() -> {
+            while (!completed.isDone()) {
+              subscription.request(1);
+              signals.acquireUninterruptibly();
+            }
+          });
+          requester.setDaemon(true);
+          requester.start();
+        }
+
+        @Override
+        public void onNext(QueryMessage.Row row) {
+          if (inOnNext.getAndIncrement() != 0) overlapped.set(true);
+          values.add(RowReader.DEFAULT.get(row, "num", Integer.class));
+          inOnNext.decrementAndGet();
+          signals.release();
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+          completed.completeExceptionally(ex);
+          signals.release();
+        }
+
+        @Override
+        public void onComplete() {
+          completed.complete(true);
+          signals.release();
+        }
+      };
+      withConnectionSync(c -> {
+        CompletableFuture<RowPublisher<QueryReadyConnection.AutoCommit>> publisher;
+        if (bound) publisher = c.prepare(sql).thenCompose(pConn -> pConn.bind()).
+            thenCompose(bConn -> bConn.describe()).thenApply(bConn -> bConn.rowPublisher(5));
+        else publisher = c.preparedQuery(sql).thenApply(QueryResultConnection::rowPublisher);
+        return publisher.thenCompose(pub -> {
+          pub.subscribe(subscriber);
+          return pub.done();
+        });
+      });
+      Assert.assertTrue(completed.get());
+      Assert.assertFalse(overlapped.get());
+      Assert.assertEquals(200, values.size());
+      for (int i = 0; i < values.size(); i++) Assert.assertEquals(i + 1, values.get(i).intValue());
+    }
+  }
+
+  @Test
+  public void testBoundCursor() {
+    // Rows of a single int4 are 15 bytes on the wire, so pages settle at 100 rows with or without prefetching. The
+    // page time is large enough to never be what sizes a page, however slow the pages are.
+    Config conf = db.conf().dbConf.copy().cursorInitialPageRows(10).cursorPageBytes(1500).
+        cursorPageTime(1, TimeUnit.DAYS);
+    for (boolean prefetch : new boolean[] { false, true }) {
+      List<Integer> pageSizes = new ArrayList<>();
+      List<Integer> values = new ArrayList<>();
+      withConnectionSync(conf, c ->
+          c.prepare("SELECT * FROM generate_series(1, 1000)").
+              thenCompose(pConn -> pConn.bindEx(QueryBuildConnection.Prepared.FORMAT_TEXT_ALL,
+                  QueryBuildConnection.Prepared.FORMAT_BINARY_ALL)).
+              thenCompose(bConn -> bConn.describe()).
+              thenCompose(bConn -> {
+                PortalCursor<QueryReadyConnection.AutoCommit> cursor = bConn.cursor(prefetch);
+                pageSizes.add(cursor.getNextPageRows());
+                return cursor.forEachRow(row -> values.add(RowReader.DEFAULT.get(row, 0, Integer.class))).
+                    thenCompose(__ -> {
+                      pageSizes.add(cursor.getNextPageRows());
+                      return cursor.done();
+                    });
+              }).
+              // Stopping with a page prefetched still leaves the connection usable
+              thenCompose(conn -> conn.prepare("SELECT * FROM generate_series(1, 1000)")).
+              thenCompose(pConn -> pConn.bind()).
+              thenCompose(bConn -> {
+                PortalCursor<QueryReadyConnection.AutoCommit> cursor = bConn.cursor(prefetch);
+                return cursor.nextPage().thenCompose(__ -> cursor.done());
+              }).
+              thenCompose(conn -> conn.simpleQueryRows("SELECT 1"))
+      );
+      Assert.assertEquals(1000, values.size());
+      for (int i = 0; i < values.size(); i++) Assert.assertEquals(i + 1, values.get(i).intValue());
+      Assert.assertEquals(Arrays.asList(10, 100), pageSizes);
+    }
+  }
 }
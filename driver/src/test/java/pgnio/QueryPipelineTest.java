@@ -0,0 +1,55 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class QueryPipelineTest extends DbTestBase {
+  @Test
+  public void testPipelinedResultsInOrder() {
+    withConnectionSync(c -> c.pipeline().thenCompose(pConn -> {
+      List<CompletableFuture<List<QueryMessage.Row>>> results = new ArrayList<>();
+      for (int i = 0; i < 500; i++)
+        results.add(pConn.queryRows("SELECT $1::int AS num FROM generate_series(1, $1::int % 5)", i));
+      return pConn.done().thenApply(conn -> {
+        for (int i = 0; i < results.size(); i++) {
+          List<QueryMessage.Row> rows = results.get(i).join();
+          Assert.assertEquals(i % 5, rows.size());
+          for (QueryMessage.Row row : rows)
+            Assert.assertEquals(i, RowReader.DEFAULT.get(row, "num", Integer.class).intValue());
+        }
+        return conn;
+      });
+    }).thenCompose(conn -> conn.simpleQueryRows("SELECT 1")).thenAccept(rows -> Assert.assertEquals(1, rows.size())));
+  }
+
+  @Test
+  public void testPipelinedFailureOnlyFailsThatQuery() {
+    withConnectionSync(c ->
+        c.simpleQueryExec("CREATE TEMP TABLE testPipelinedFailure (foo INTEGER)").
+            thenCompose(conn -> conn.pipeline()).
+            thenCompose(pConn -> {
+              CompletableFuture<Long> first = pConn.queryRowCount("INSERT INTO testPipelinedFailure VALUES ($1)", 1);
+              CompletableFuture<Void> bad = pConn.queryExec("SELECT * FROM testPipelinedFailureNope");
+              CompletableFuture<Long> second = pConn.queryRowCount("INSERT INTO testPipelinedFailure VALUES ($1)", 2);
+              return pConn.done().thenApply(conn -> {
+                Assert.assertEquals(1L, first.join().longValue());
+                Assert.assertEquals(1L, second.join().longValue());
+                try {
+                  bad.get();
+                  Assert.fail();
+                } catch (InterruptedException | ExecutionException e) {
+                  Assert.assertTrue(e.getCause() instanceof DriverException.FromServer);
+                }
+                return conn;
+              });
+            }).
+            thenCompose(conn -> conn.simpleQueryRows("SELECT * FROM testPipelinedFailure")).
+            thenAccept(rows -> Assert.assertEquals(2, rows.size()))
+    );
+  }
+}
@@ -0,0 +1,46 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SharedConnectionTest extends DbTestBase {
+  @Test
+  public void testManyThreadsOneConnection() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(10);
+    try (SharedConnection conn = SharedConnection.connect(db.conf().dbConf).get()) {
+      List<Future<?>> threads = new ArrayList<>();
+      for (int thread = 0; thread < 10; thread++) {
+        int threadNum = thread;
+        threads.add(exec.submit(() -> {
+          List<CompletableFuture<List<QueryMessage.Row>>> results = new ArrayList<>();
+          for (int i = 0; i < 100; i++) results.add(conn.queryRows("SELECT $1::int AS num", threadNum * 1000 + i));
+          for (int i = 0; i < results.size(); i++) {
+            QueryMessage.Row row = results.get(i).join().get(0);
+            Assert.assertEquals(threadNum * 1000 + i, RowReader.DEFAULT.get(row, "num", Integer.class).intValue());
+          }
+          return null;
+        }));
+      }
+      for (Future<?> thread : threads) thread.get();
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public void testSharedFailureOnlyFailsThatQuery() throws Exception {
+    try (SharedConnection conn = SharedConnection.connect(db.conf().dbConf).get()) {
+      CompletableFuture<Void> bad = conn.queryExec("SELECT * FROM testSharedFailureNope");
+      CompletableFuture<List<QueryMessage.Row>> good = conn.queryRows("SELECT 1");
+      Assert.assertEquals(1, good.get().size());
+      Assert.assertTrue(bad.isCompletedExceptionally());
+    }
+  }
+}
@@ -3,7 +3,11 @@ package pgnio;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class SimpleQueryTest extends DbTestBase {
   @Test
@@ -13,4 +17,180 @@ public class SimpleQueryTest extends DbTestBase {
     Assert.assertEquals(1, rows.size());
     Assert.assertEquals(db.conf().dbConf.database, RowReader.DEFAULT.get(rows.get(0), "database_name", String.class));
   }
+
+  @Test
+  public void testManyRowsAcrossReadBuffer() throws Exception {
+    // A small read buffer makes messages span reads and forces growth for the larger rows
+    Config conf = newDefaultConfig().readBufferSize(64);
+    List<QueryMessage.Row> rows = Connection.authed(conf).thenCompose(conn ->
+        conn.terminated(conn.simpleQueryRows("SELECT i, repeat('x', i) AS s FROM generate_series(1, 5000) i"))).get();
+    Assert.assertEquals(5000, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      Assert.assertEquals(i + 1, RowReader.DEFAULT.get(rows.get(i), "i", Integer.class).intValue());
+      Assert.assertEquals(i + 1, RowReader.DEFAULT.get(rows.get(i), "s", String.class).length());
+    }
+  }
+
+  @Test
+  public void testSmallSeparateReadAndWriteBuffers() throws Exception {
+    // Both buffers have to grow on their own, the large query for the write one and the large rows for the read one
+    Config conf = newDefaultConfig().readBufferSize(32).writeBufferSize(16);
+    StringBuilder query = new StringBuilder("SELECT repeat('y', 3000) AS s");
+    for (int i = 0; i < 100; i++) query.append(" UNION ALL SELECT repeat('y', 3000) AS s");
+    List<QueryMessage.Row> rows = Connection.authed(conf).thenCompose(conn ->
+        conn.terminated(conn.simpleQueryRows(query.toString()))).get();
+    Assert.assertEquals(101, rows.size());
+    for (QueryMessage.Row row : rows) Assert.assertEquals(3000, RowReader.DEFAULT.get(row, "s", String.class).length());
+  }
+
+  @Test
+  public void testBuffersReleasedOnTerminate() throws Exception {
+    BufferAllocator alloc = new BufferAllocator(1024, 1024 * 1024, 64 * 1024, 4, 1024 * 1024);
+    Config conf = newDefaultConfig().bufferAllocator(alloc);
+    Connection.authed(conf).thenCompose(conn -> conn.terminated(conn.simpleQueryExec("SELECT 1"))).get();
+    Assert.assertEquals(conf.readBufferSize + conf.writeBufferSize, alloc.getPooledDirectBytes());
+  }
+
+  @Test
+  public void testSelectorSocketChannel() throws Exception {
+    Config conf = newDefaultConfig().ioConnector(ConnectionIo.SelectorSocketChannel::connect);
+    List<QueryMessage.Row> rows = Connection.authed(conf).thenCompose(conn ->
+        conn.terminated(conn.simpleQueryRows("SELECT generate_series(1, 10000) AS num").thenCompose(simpleRows -> {
+          Assert.assertEquals(10000, simpleRows.size());
+          return conn.preparedQueryRows("SELECT $1::int AS num", 5);
+        }))).get();
+    Assert.assertEquals(5, RowReader.DEFAULT.get(rows.get(0), "num", Integer.class).intValue());
+  }
+
+  @Test
+  public void testStreamLargeColumn() throws Exception {
+    // The large value comes in read-buffer-sized chunks while the small ones are in the row as usual
+    Config conf = newDefaultConfig().readBufferSize(4096);
+    long[] streamedBytes = { 0 };
+    int[] maxChunk = { 0 };
+    List<QueryMessage.Row> rows = new ArrayList<>();
+    Connection.authed(conf).thenCompose(conn -> conn.terminated(
+        conn.simpleQuery("SELECT 'a' AS small, repeat('z', 3000000) AS big, NULL AS none").thenCompose(res ->
+            res.forEachRowStreamingAsync(1000, (meta, columnIndex, chunk, last) -> {
+              Assert.assertEquals(1, columnIndex);
+              streamedBytes[0] += chunk.remaining();
+              maxChunk[0] = Math.max(maxChunk[0], chunk.remaining());
+              while (chunk.hasRemaining()) Assert.assertEquals('z', chunk.get());
+              return CompletableFuture.completedFuture(null);
+            }, row -> {
+              rows.add(row);
+              return CompletableFuture.completedFuture(null);
+            }).thenCompose(__ -> res.done())))).get();
+    Assert.assertEquals(3000000, streamedBytes[0]);
+    Assert.assertTrue(maxChunk[0] <= 4096);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertEquals("a", RowReader.DEFAULT.get(rows.get(0), "small", String.class));
+    Assert.assertNull(rows.get(0).raw[1]);
+    Assert.assertNull(rows.get(0).raw[2]);
+  }
+
+  @Test
+  public void testRowView() throws Exception {
+    long[] sum = { 0 };
+    List<QueryMessage.Row> kept = new ArrayList<>();
+    Connection.authed(db.conf().dbConf).thenCompose(conn -> conn.terminated(
+        conn.simpleQuery("SELECT i, -i::bigint AS neg, i % 2 = 0 AS even, 'row ' || i AS s, NULL AS none, " +
+            "i / 2.0 AS d FROM generate_series(1, 10000) i").thenCompose(res -> res.forEachRowView(row -> {
+          int i = row.getInt(0);
+          sum[0] += i;
+          Assert.assertEquals(-i, row.getLong(row.columnIndex("neg")));
+          Assert.assertEquals(i % 2 == 0, row.getBoolean(2));
+          Assert.assertEquals("row " + i, row.getString(3));
+          Assert.assertTrue(row.isNull(4));
+          Assert.assertNull(row.getString(4));
+          Assert.assertEquals(i / 2.0, row.getDouble(5), 0);
+          if (i == 10000) kept.add(row.toRow());
+        }).thenCompose(__ -> res.done())))).get();
+    Assert.assertEquals(10000L * 10001 / 2, sum[0]);
+    Assert.assertEquals("row 10000", RowReader.DEFAULT.get(kept.get(0), "s", String.class));
+  }
+
+  @Test
+  public void testColumnar() throws Exception {
+    List<ColumnarBatch> batches = new ArrayList<>();
+    Connection.authed(db.conf().dbConf).thenCompose(conn -> conn.terminated(
+        conn.simpleQuery("SELECT i, i::bigint * 1000000000 AS l, i / 4.0::float8 AS d, i % 2 = 0 AS b, " +
+            "CASE WHEN i % 3 = 0 THEN NULL ELSE 'str' || i END AS s FROM generate_series(0, 2499) i").
+            thenCompose(res -> res.forEachColumnar(1000, batches::add).thenCompose(__ -> res.done())))).get();
+    Assert.assertEquals(3, batches.size());
+    Assert.assertEquals(500, batches.get(2).rowCount);
+    for (int b = 0; b < batches.size(); b++) {
+      ColumnarBatch batch = batches.get(b);
+      int[] ints = ((ColumnarBatch.IntColumn) batch.column("i")).values();
+      long[] longs = ((ColumnarBatch.LongColumn) batch.column("l")).values();
+      double[] doubles = ((ColumnarBatch.DoubleColumn) batch.column("d")).values();
+      boolean[] bools = ((ColumnarBatch.BooleanColumn) batch.column("b")).values();
+      ColumnarBatch.BytesColumn strs = (ColumnarBatch.BytesColumn) batch.column("s");
+      for (int row = 0; row < batch.rowCount; row++) {
+        int i = b * 1000 + row;
+        Assert.assertEquals(i, ints[row]);
+        Assert.assertEquals(i * 1000000000L, longs[row]);
+        Assert.assertEquals(i / 4.0, doubles[row], 0);
+        Assert.assertEquals(i % 2 == 0, bools[row]);
+        Assert.assertEquals(i % 3 == 0, strs.isNull(row));
+        if (i % 3 != 0) Assert.assertEquals("str" + i, strs.getString(row));
+      }
+    }
+    // Empty results still have their columns
+    ColumnarBatch empty = withConnectionSync(conn -> conn.simpleQuery("SELECT 1 AS one WHERE false").
+        thenCompose(res -> res.collectColumnar().thenCompose(batch -> res.done().thenApply(__ -> batch))));
+    Assert.assertEquals(0, empty.rowCount);
+    Assert.assertTrue(empty.column("one") instanceof ColumnarBatch.IntColumn);
+  }
+
+  @Test
+  public void testCollectRowsSpill() throws Exception {
+    String sql = "SELECT i, CASE WHEN i % 3 = 0 THEN NULL ELSE 'str' || i END AS s FROM generate_series(1, 20000) i";
+    // Keep about 100KB on the heap and spill the rest
+    SpillingRows rows = withConnectionSync(conn ->
+        conn.simpleQuery(sql).thenCompose(res -> res.collectRowsAndDone(100000)));
+    Path spillFile = rows.getSpillFile();
+    try {
+      Assert.assertEquals(20000, rows.size());
+      Assert.assertTrue(rows.getHeapRowCount() > 0);
+      Assert.assertTrue(rows.getSpilledRowCount() > 0);
+      Assert.assertTrue(Files.exists(spillFile));
+      // Can be iterated more than once
+      for (int pass = 0; pass < 2; pass++) {
+        int i = 0;
+        for (QueryMessage.Row row : rows) {
+          i++;
+          Assert.assertEquals(i, RowReader.DEFAULT.get(row, "i", Integer.class).intValue());
+          Assert.assertEquals(i % 3 == 0 ? null : "str" + i, RowReader.DEFAULT.get(row, "s", String.class));
+        }
+        Assert.assertEquals(20000, i);
+      }
+    } finally {
+      rows.close();
+    }
+    Assert.assertFalse(Files.exists(spillFile));
+  }
+
+  @Test
+  public void testCollectArena() {
+    // Small slabs so the rows span several
+    RowArena arena = withConnectionSync(conn ->
+        conn.simpleQuery("SELECT i, i::bigint * 1000000000 AS l, CASE WHEN i % 3 = 0 THEN NULL ELSE 'str' || i END " +
+            "AS s FROM generate_series(1, 5000) i").thenCompose(res -> res.collectArena(4096).
+            thenCompose(a -> res.done().thenApply(__ -> a))));
+    try {
+      Assert.assertEquals(5000, arena.size());
+      RowArena.Reader reader = arena.reader();
+      // Random access in reverse
+      for (int row = arena.size() - 1; row >= 0; row--) {
+        int i = row + 1;
+        Assert.assertEquals(i, reader.getInt(row, 0));
+        Assert.assertEquals(i * 1000000000L, reader.getLong(row, 1));
+        Assert.assertEquals(i % 3 == 0, reader.isNull(row, 2));
+        Assert.assertEquals(i % 3 == 0 ? null : "str" + i, reader.get(RowReader.DEFAULT, row, "s", String.class));
+      }
+    } finally {
+      arena.close();
+    }
+  }
 }
@@ -0,0 +1,78 @@
+package pgnio;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncConnectionTest extends DbTestBase {
+  @Test
+  public void testBlockingQueries() {
+    try (SyncConnection conn = SyncConnection.connect(SyncConnection.blockingConfig(newDefaultConfig()))) {
+      Assert.assertEquals(10000, conn.simpleQueryRows("SELECT generate_series(1, 10000)").size());
+      Assert.assertEquals(5, RowReader.DEFAULT.get(
+          conn.preparedQueryRows("SELECT $1::int AS num", 5).get(0), "num", Integer.class).intValue());
+      int[] count = { 0 };
+      Thread thread = Thread.currentThread();
+      // Well past the buffered reads a non-blocking IO would take before handing off to another thread
+      conn.preparedQueryForEachRow(row -> {
+        Assert.assertSame(thread, Thread.currentThread());
+        count[0]++;
+      }, "SELECT generate_series(1, $1::int)", 5000);
+      Assert.assertEquals(5000, count[0]);
+      try {
+        conn.simpleQueryExec("SELECT * FROM testBlockingQueriesNope");
+        Assert.fail();
+      } catch (DriverException.FromServer e) {
+        // Expected, and the connection is still usable after
+      }
+      Assert.assertEquals(1, conn.simpleQueryRows("SELECT 1").size());
+    }
+  }
+
+  @Test
+  public void testLargeValue() {
+    // Every read of the 20 MB hex row completes immediately, which must not recurse per read
+    try (SyncConnection conn = SyncConnection.connect(SyncConnection.blockingConfig(newDefaultConfig()))) {
+      byte[] bytes = RowReader.DEFAULT.get(conn.simpleQueryRows(
+          "SELECT decode(repeat('ab', 10000000), 'hex') AS val").get(0), "val", byte[].class);
+      Assert.assertEquals(10000000, bytes.length);
+      Assert.assertEquals((byte) 0xab, bytes[bytes.length - 1]);
+    }
+  }
+
+  @Test
+  public void testUnixSocketRejected() {
+    try {
+      SyncConnection.connect(SyncConnection.blockingConfig(newDefaultConfig().unixSocketPath("/var/run/postgresql")));
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // Expected, blocking sockets are TCP only
+    }
+  }
+
+  @Test
+  public void testTransactionRollbackOnThrow() {
+    try (SyncConnection conn = SyncConnection.connect(SyncConnection.blockingConfig(newDefaultConfig()))) {
+      conn.simpleQueryExec("CREATE TEMP TABLE testTransactionRollbackOnThrow (foo INTEGER)");
+      try {
+        conn.transaction(txConn -> {
+          txConn.preparedQueryExec("INSERT INTO testTransactionRollbackOnThrow VALUES ($1)", 1);
+          throw new IllegalStateException("rollback please");
+        });
+        Assert.fail();
+      } catch (IllegalStateException e) {
+        Assert.assertEquals("rollback please", e.getMessage());
+      }
+      Long inserted = conn.transaction(txConn ->
+          txConn.preparedQueryRowCount("INSERT INTO testTransactionRollbackOnThrow VALUES ($1)", 2));
+      Assert.assertEquals(1L, inserted.longValue());
+      Assert.assertEquals(1, conn.simpleQueryRows("SELECT * FROM testTransactionRollbackOnThrow").size());
+    }
+  }
+
+  @Test
+  public void testPool() {
+    try (SyncConnectionPool pool = new SyncConnectionPool(SyncConnection.blockingConfig(newDefaultConfig()))) {
+      Assert.assertEquals(3, pool.withConnection(conn -> conn.simpleQueryRows("SELECT generate_series(1, 3)")).size());
+    }
+  }
+}